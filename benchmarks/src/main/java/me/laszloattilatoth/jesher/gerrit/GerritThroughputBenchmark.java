@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.testsupport.FakeGerritReviewCommand;
+import me.laszloattilatoth.jesher.testsupport.FakeGerritServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the REST and review throughput against the in-process fake Gerrit, with a realistic latency,
+ * so the effect of the concurrency and the response cache can be compared without a real server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GerritThroughputBenchmark {
+    private static final int STACKS = 10;
+    private static final int STACK_SIZE = 5;
+    private static final int REVIEWS = 20;
+
+    @Param({"1", "4", "16"})
+    private int concurrency;
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private FakeGerritServer server;
+    private Path reviewDirectory;
+    private Gerrit gerrit;
+    private RelatedChangeFetcher fetcher;
+    private List<PatchSet> patchSets;
+
+    @Setup
+    public void setup() throws IOException {
+        FakeGerritServer.Builder builder = new FakeGerritServer.Builder().latency(Duration.ofMillis(5), Duration.ofMillis(15));
+        for (int stack = 0; stack != STACKS; ++stack)
+            builder.relatedStack(stack * 100 + 1, STACK_SIZE);
+        server = builder.start();
+        // the stacks are interleaved, like in a query result sorted by the update time
+        patchSets = new ArrayList<>();
+        for (int i = 1; i <= STACK_SIZE; ++i) {
+            for (int stack = 0; stack != STACKS; ++stack)
+                patchSets.add(new PatchSet(stack * 100 + i, 1));
+        }
+
+        reviewDirectory = Files.createTempDirectory("jesher-benchmark");
+        FakeGerritReviewCommand ssh = new FakeGerritReviewCommand.Builder(reviewDirectory).latency(Duration.ofMillis(10)).build();
+        Gerrit.Builder gerritBuilder = new Gerrit.Builder("127.0.0.1").useHttps(false).webPort(server.port()).sshUser("bot")
+                .sshExecutable(ssh.executable().toString()).maxSshChannels(concurrency);
+        if (cached)
+            gerritBuilder.httpCache(new GerritResponseCache.Builder().defaultTtl(Duration.ofMinutes(10)).build());
+        gerrit = gerritBuilder.build();
+        fetcher = new RelatedChangeFetcher(gerrit);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        try (var files = Files.walk(reviewDirectory)) {
+            for (Path path : files.sorted((a, b) -> b.compareTo(a)).toList())
+                Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public Map<PatchSet, List<RelatedChange>> fetchAsChains() throws IOException, InterruptedException {
+        return fetcher.fetchAsChains(patchSets, concurrency);
+    }
+
+    @Benchmark
+    public void reviewOutbox() throws Exception {
+        ReviewOutbox outbox = new ReviewOutbox.Builder(gerrit).concurrency(concurrency).build();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= REVIEWS; ++i)
+            futures.add(outbox.submit(i, 1, new ReviewMessage().addBlockWithReview("benchmark", 1)));
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        outbox.close();
+    }
+}
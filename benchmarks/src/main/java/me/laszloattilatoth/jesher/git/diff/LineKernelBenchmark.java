@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import com.github.difflib.DiffUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and the vectorized {@link LineKernel}, and diffing strings against {@link HashedLine}s.
+ * It is in the package of {@link Differ} to reach the package-private classes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class LineKernelBenchmark {
+    @Param({"16", "80", "400"})
+    private int lineLength;
+
+    private final LineKernel scalar = LineKernel.scalar();
+    private final LineKernel vector = LineKernel.best();
+    private byte[] buffer;
+    private byte[] copy;
+    private List<String> localLines;
+    private List<String> upstreamLines;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        buffer = new byte[lineLength];
+        for (int i = 0; i != lineLength; ++i)
+            buffer[i] = (byte) ('a' + random.nextInt(26));
+        copy = buffer.clone();
+
+        localLines = new ArrayList<>();
+        upstreamLines = new ArrayList<>();
+        for (int i = 0; i != 2000; ++i) {
+            String line = "+" + new String(buffer, 0, random.nextInt(lineLength), StandardCharsets.UTF_8) + i % 97;
+            localLines.add(line);
+            upstreamLines.add(i % 50 == 0 ? line + " changed" : line);
+        }
+    }
+
+    @Benchmark
+    public long scalarFingerprint() {
+        return scalar.fingerprint(buffer, 0, buffer.length);
+    }
+
+    @Benchmark
+    public long vectorFingerprint() {
+        return vector.fingerprint(buffer, 0, buffer.length);
+    }
+
+    @Benchmark
+    public boolean scalarRangeEquals() {
+        return scalar.rangeEquals(buffer, 0, copy, 0, buffer.length);
+    }
+
+    @Benchmark
+    public boolean vectorRangeEquals() {
+        return vector.rangeEquals(buffer, 0, copy, 0, buffer.length);
+    }
+
+    @Benchmark
+    public int diffStrings() {
+        return DiffUtils.diff(localLines, upstreamLines).getDeltas().size();
+    }
+
+    @Benchmark
+    public int hashLinesScalar() {
+        return HashedLine.of(localLines, scalar).size();
+    }
+
+    @Benchmark
+    public int hashLinesVector() {
+        return HashedLine.of(localLines, vector).size();
+    }
+
+    @Benchmark
+    public int diffHashedLines() {
+        return DiffUtils.diff(HashedLine.of(localLines, vector), HashedLine.of(upstreamLines, vector)).getDeltas().size();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the makespan of a skewed tree: many short leaves submitted before a long chain, and a big
+ * post-processor waiting for all of them. In submission order the chain starts last; with the
+ * critical-path heuristic it starts first and overlaps the leaves. The tasks sleep, so the result
+ * does not depend on the number of CPUs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SkewedTreeBenchmark {
+    private static final int THREADS = 4;
+    private static final int LEAVES = 48;
+    private static final long LEAF_MILLIS = 2;
+    private static final int CHAIN_LENGTH = 8;
+    private static final long CHAIN_LINK_MILLIS = 5;
+    private static final long POST_PROCESSOR_MILLIS = 10;
+
+    @Param({"fifo", "criticalPath"})
+    private String scheduling;
+
+    @Benchmark
+    public void makespan() throws InterruptedException {
+        ThreadPool pool = scheduling.equals("criticalPath") ? ThreadPool.ofPriority(THREADS) : new ThreadPool(THREADS);
+        pool.addTask(new Root(pool));
+        pool.waitAllTask();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Root extends Task {
+        Root(ThreadPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected void doRun() {
+            for (int i = 0; i != LEAVES; ++i)
+                addNextTask(new Sleeping(pool(), LEAF_MILLIS, 0));
+            addNextTask(new Sleeping(pool(), CHAIN_LINK_MILLIS, CHAIN_LENGTH - 1));
+            addPostProcessorRunnable(() -> sleep(POST_PROCESSOR_MILLIS));
+        }
+    }
+
+    /**
+     * Sleeps, then starts the rest of its chain as a next task.
+     */
+    private static class Sleeping extends Task {
+        private final long millis;
+        private final int remainingLinks;
+
+        Sleeping(ThreadPool pool, long millis, int remainingLinks) {
+            super(pool);
+            this.millis = millis;
+            this.remainingLinks = remainingLinks;
+        }
+
+        @Override
+        protected void doRun() {
+            sleep(millis);
+            if (remainingLinks > 0)
+                addNextTask(new Sleeping(pool(), millis, remainingLinks - 1));
+        }
+
+        @Override
+        protected long estimatedCostNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(millis * (remainingLinks + 1));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a recursive tree of fine-grained tasks, each starting two next tasks and a post-processor,
+ * on the fixed and the work-stealing pools.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadPoolBenchmark {
+    @Param({"fixed", "workStealing"})
+    private String backend;
+
+    @Param({"12", "16"})
+    private int depth;
+
+    private ThreadPool createPool() {
+        int threads = Math.max(1, ThreadPool.CPU_THREADS);
+        return backend.equals("workStealing") ? ThreadPool.ofWorkStealing(threads) : new ThreadPool(threads);
+    }
+
+    @Benchmark
+    public long taskTree() throws InterruptedException {
+        ThreadPool pool = createPool();
+        LongAdder sum = new LongAdder();
+        pool.addTask(new TreeTask(pool, depth, 1, sum));
+        pool.waitAllTask();
+        return sum.sum();
+    }
+
+    private static class TreeTask extends Task {
+        private final int depth;
+        private final long seed;
+        private final LongAdder sum;
+
+        TreeTask(ThreadPool pool, int depth, long seed, LongAdder sum) {
+            super(pool);
+            this.depth = depth;
+            this.seed = seed;
+            this.sum = sum;
+        }
+
+        @Override
+        protected void doRun() {
+            long value = seed;
+            for (int i = 0; i != 64; ++i)
+                value = value * 6364136223846793005L + 1442695040888963407L;
+            if (depth > 0) {
+                addNextTask(new TreeTask(pool(), depth - 1, value, sum));
+                addNextTask(new TreeTask(pool(), depth - 1, value + 1, sum));
+                long result = value;
+                addPostProcessorRunnable(() -> sum.add(result));
+            } else {
+                sum.add(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.metrics;
+
+/**
+ * A pluggable sink of counters and histograms, e.g. an adapter of a monitoring library.
+ * <p>
+ * The meters are identified by a name and tags given as key-value pairs, e.g.
+ * `histogram("gerrit.rest.latency", "endpoint", "changes/*", "status", "200")`. The implementations
+ * are expected to return the same meter for the same identity cheaply and to be thread-safe.
+ * The instrumented code checks {@link #enabled()} first, so {@link #NOOP} costs nothing on the hot paths.
+ */
+public interface MetricsRegistry {
+    MetricsRegistry NOOP = new MetricsRegistry() {
+        @Override
+        public Counter counter(String name, String... tags) {
+            return amount -> {
+            };
+        }
+
+        @Override
+        public Histogram histogram(String name, String... tags) {
+            return value -> {
+            };
+        }
+
+        @Override
+        public boolean enabled() {
+            return false;
+        }
+    };
+
+    interface Counter {
+        void increment(long amount);
+
+        default void increment() {
+            increment(1);
+        }
+    }
+
+    /**
+     * A distribution of values, e.g. latencies in nanoseconds or sizes in bytes.
+     */
+    interface Histogram {
+        void record(long value);
+    }
+
+    Counter counter(String name, String... tags);
+
+    Histogram histogram(String name, String... tags);
+
+    default boolean enabled() {
+        return true;
+    }
+}
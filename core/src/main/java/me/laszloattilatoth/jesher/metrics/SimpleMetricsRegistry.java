@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory registry for tests, tools and periodic dumps. The histograms have power of two buckets,
+ * so the percentiles are upper bounds within a factor of two.
+ */
+public class SimpleMetricsRegistry implements MetricsRegistry {
+    public static final class SimpleCounter implements Counter {
+        private final LongAdder value = new LongAdder();
+
+        @Override
+        public void increment(long amount) {
+            value.add(amount);
+        }
+
+        public long value() {
+            return value.sum();
+        }
+    }
+
+    public static final class SimpleHistogram implements Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        /**
+         * The values of bucket i are below 2^i.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+
+        @Override
+        public void record(long value) {
+            value = Math.max(0, value);
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long sum() {
+            return sum.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long count = count();
+            return count == 0 ? 0 : (double) sum() / count;
+        }
+
+        /**
+         * @param quantile Between 0 and 1, e.g. 0.99
+         * @return an upper bound of the quantile, at most the maximum
+         */
+        public long percentile(double quantile) {
+            long rank = (long) Math.ceil(quantile * count());
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); ++i) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0)
+                    return i == Long.SIZE ? max() : Math.min(max(), (1L << i) - 1);
+            }
+            return max();
+        }
+    }
+
+    private final Map<String, SimpleCounter> counters = new ConcurrentHashMap<>();
+    private final Map<String, SimpleHistogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public SimpleCounter counter(String name, String... tags) {
+        return counters.computeIfAbsent(key(name, tags), k -> new SimpleCounter());
+    }
+
+    @Override
+    public SimpleHistogram histogram(String name, String... tags) {
+        return histograms.computeIfAbsent(key(name, tags), k -> new SimpleHistogram());
+    }
+
+    /**
+     * @return the counters by `name{key=value,...}`, sorted
+     */
+    public Map<String, SimpleCounter> counters() {
+        return new TreeMap<>(counters);
+    }
+
+    /**
+     * @return the histograms by `name{key=value,...}`, sorted
+     */
+    public Map<String, SimpleHistogram> histograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    static String key(String name, String... tags) {
+        if (tags.length % 2 != 0)
+            throw new IllegalArgumentException("Tags must be key-value pairs: " + name);
+        if (tags.length == 0)
+            return name;
+        StringBuilder result = new StringBuilder(name).append('{');
+        for (int i = 0; i < tags.length; i += 2) {
+            if (i != 0)
+                result.append(',');
+            result.append(tags[i]).append('=').append(tags[i + 1]);
+        }
+        return result.append('}').toString();
+    }
+}
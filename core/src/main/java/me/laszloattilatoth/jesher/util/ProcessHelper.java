@@ -17,9 +17,11 @@
 package me.laszloattilatoth.jesher.util;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 public class ProcessHelper {
 
@@ -36,6 +38,32 @@ public class ProcessHelper {
         return p.inputReader();
     }
 
+    /**
+     * Starts a process and feeds the input lines to its standard input from a separate thread,
+     * so that a process producing output while still reading its input cannot block.
+     */
+    public static BufferedReader getOutputReaderWithInput(File directory, List<String> inputLines, String... args) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+        pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
+        if (directory != null)
+            pb.directory(directory);
+        Process p = pb.start();
+        Thread writer = new Thread(() -> {
+            try (BufferedWriter w = p.outputWriter()) {
+                for (String line : inputLines) {
+                    w.write(line);
+                    w.write('\n');
+                }
+            } catch (IOException e) {
+                // the process exited before reading all input, its output tells the rest
+            }
+        });
+        writer.setDaemon(true);
+        writer.start();
+        return p.inputReader();
+    }
+
     public static int run(File directory, String... args) throws IOException, InterruptedException {
         ProcessBuilder pb = new ProcessBuilder(args);
         pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
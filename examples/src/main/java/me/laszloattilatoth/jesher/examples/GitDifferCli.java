@@ -16,14 +16,27 @@
 
 package me.laszloattilatoth.jesher.examples;
 
+import me.laszloattilatoth.jesher.git.diff.ChangeSource;
+import me.laszloattilatoth.jesher.git.diff.ComparisonMode;
+import me.laszloattilatoth.jesher.git.diff.DiffOptions;
 import me.laszloattilatoth.jesher.git.diff.DiffResult;
 import me.laszloattilatoth.jesher.git.diff.DiffResultWithDownstreamKeyProvider;
 import me.laszloattilatoth.jesher.git.diff.Differ;
+import me.laszloattilatoth.jesher.git.diff.FilenameMapper;
+import me.laszloattilatoth.jesher.git.diff.GitCommitChangeSource;
+import me.laszloattilatoth.jesher.git.diff.PatchDirectoryChangeSource;
+import me.laszloattilatoth.jesher.git.diff.PipelineStats;
+import me.laszloattilatoth.jesher.git.diff.WorkingTreeChangeSource;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.Spec;
 
 import java.io.File;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 @Command(name = "git-differ", mixinStandardHelpOptions = true, description = "Compare two git commits")
@@ -32,10 +45,27 @@ public class GitDifferCli implements Callable<Integer> {
     @Parameters(index = "0", description = "Repository or its subdirectory")
     private File repository;
 
-    @Parameters(index = "1", description = "Local commit ID")
-    private String localCommitId;
-    @Parameters(index = "2", description = "Upstream commit ID")
-    private String upstreamCommitId;
+    @Parameters(index = "1..2", arity = "1..2", paramLabel = "COMMIT",
+            description = "Local and upstream commit IDs, only the upstream one with --local-patches or --local-working-tree")
+    private List<String> commitIds;
+
+    @Spec
+    private CommandSpec spec;
+
+    @Option(names = "--max-file-size", description = "Files above this size (in bytes) are compared by blob ID only")
+    private long maxFileSize = DiffOptions.DEFAULT_MAX_FILE_SIZE;
+    @Option(names = "--no-binary-detection", description = "Diff binary files as text")
+    private boolean noBinaryDetection;
+    @Option(names = "--pipelined", description = "Load file diffs ahead of comparing them in parallel")
+    private boolean pipelined;
+    @Option(names = "--prefetch", description = "Number of prefetched file pairs in pipelined mode")
+    private int prefetchQueueSize = DiffOptions.DEFAULT_PREFETCH_QUEUE_SIZE;
+    @Option(names = "--mode", description = "Additional comparison modes: ${COMPLETION-CANDIDATES}")
+    private ComparisonMode[] comparisonModes = {};
+    @Option(names = "--local-patches", description = "Directory of *.patch, *.diff or *.mbox files used instead of the local commit")
+    private File localPatches;
+    @Option(names = "--local-working-tree", description = "Use the uncommitted changes instead of the local commit")
+    private boolean localWorkingTree;
 
     public static void main(String... args) {
         int exitCode = new CommandLine(new GitDifferCli()).execute(args);
@@ -44,7 +74,32 @@ public class GitDifferCli implements Callable<Integer> {
 
     @Override
     public Integer call() throws Exception {
-        Differ differ = new Differ(repository, localCommitId, upstreamCommitId);
+        if (localPatches != null && localWorkingTree)
+            throw new ParameterException(spec.commandLine(), "--local-patches and --local-working-tree are mutually exclusive");
+        boolean localCommit = localPatches == null && !localWorkingTree;
+        if (commitIds.size() != (localCommit ? 2 : 1)) {
+            throw new ParameterException(spec.commandLine(), localCommit
+                    ? "Both the local and the upstream commit IDs are required"
+                    : "Only the upstream commit ID is expected with --local-patches or --local-working-tree");
+        }
+        String upstreamCommitId = commitIds.get(commitIds.size() - 1);
+
+        DiffOptions options = new DiffOptions.Builder()
+                .maxFileSize(maxFileSize)
+                .detectBinary(!noBinaryDetection)
+                .pipelined(pipelined)
+                .prefetchQueueSize(prefetchQueueSize)
+                .comparisonModes(comparisonModes)
+                .build();
+        ChangeSource local;
+        if (localPatches != null)
+            local = new PatchDirectoryChangeSource(localPatches);
+        else if (localWorkingTree)
+            local = new WorkingTreeChangeSource(repository);
+        else
+            local = new GitCommitChangeSource(repository, commitIds.get(0));
+        Differ differ = new Differ(local, new GitCommitChangeSource(repository, upstreamCommitId), new FilenameMapper() {
+        }, options);
         DiffResult result = differ.run();
         System.out.printf("Diff result: %s%n", result);
         System.out.println(" ... as key-value pairs");
@@ -53,6 +108,11 @@ public class GitDifferCli implements Callable<Integer> {
                     System.out.printf(" %s = (size: %d)%n", k, v.size());
                     v.forEach(f -> System.out.printf("    --> %s%n", f));
                 });
+        if (differ.pipelineStats() != null) {
+            PipelineStats stats = differ.pipelineStats();
+            System.out.printf("Pipeline: %d file pairs, loader utilization: %.2f, %d comparing threads' utilization: %.2f%n",
+                    stats.items(), stats.producerUtilization(), stats.consumers(), stats.consumerUtilization());
+        }
 
         return 0;
     }
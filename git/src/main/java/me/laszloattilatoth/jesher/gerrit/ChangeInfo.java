@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import java.util.List;
+
+/**
+ * The commonly used fields of a change returned by the `changes` endpoints.
+ *
+ * @param revisions   The revisions if requested by the `o=CURRENT_REVISION` or `o=ALL_REVISIONS` option, otherwise empty
+ * @param moreChanges Set on the last change of a query result if there are more changes
+ */
+public record ChangeInfo(String id, int number, String project, String branch, String changeId, String subject,
+                         String status, String updated, String currentRevision, List<RevisionInfo> revisions,
+                         boolean moreChanges) {
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A change query, e.g. `status:open project:foo`, whose result is fetched page by page as it's iterated.
+ * <p>
+ * Gerrit sets `_more_changes` on the last change of a page if the result continues, and the next page is requested
+ * by skipping the already returned changes (`S=`). The next page is requested as soon as the iteration reaches
+ * a page, so it's downloaded while the caller processes the current one.
+ * <p>
+ * Each iteration runs the query again. The iterators throw {@link UncheckedIOException} if a request fails.
+ */
+public class ChangeQuery implements Iterable<ChangeInfo> {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final GerritRestClient client;
+    private final String path;
+    private final int pageSize;
+    private final int limit;
+
+    private ChangeQuery(GerritRestClient client, String query, List<String> options, int pageSize, int limit) {
+        StringBuilder path = new StringBuilder("changes/?q=").append(URLEncoder.encode(query, StandardCharsets.UTF_8));
+        for (String option : options)
+            path.append("&o=").append(URLEncoder.encode(option, StandardCharsets.UTF_8));
+        this.client = client;
+        this.path = path.toString();
+        this.pageSize = pageSize;
+        this.limit = limit;
+    }
+
+    String pagePath(int start) {
+        return path + "&n=" + Math.min(pageSize, limit - start) + (start == 0 ? "" : "&S=" + start);
+    }
+
+    @Override
+    public Iterator<ChangeInfo> iterator() {
+        return new PageIterator();
+    }
+
+    public Stream<ChangeInfo> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * @return all the changes of the query
+     * @throws IOException if a request fails
+     */
+    public List<ChangeInfo> fetchAll() throws IOException {
+        List<ChangeInfo> result = new ArrayList<>();
+        try {
+            forEach(result::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    private class PageIterator implements Iterator<ChangeInfo> {
+        private Iterator<ChangeInfo> page = Collections.emptyIterator();
+        private CompletableFuture<List<ChangeInfo>> nextPage;
+        private int fetched = 0;
+
+        PageIterator() {
+            nextPage = limit > 0 ? client.get(pagePath(0), GerritJson.CHANGES) : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!page.hasNext() && nextPage != null) {
+                List<ChangeInfo> changes = join(nextPage);
+                fetched += changes.size();
+                boolean more = !changes.isEmpty() && changes.get(changes.size() - 1).moreChanges() && fetched < limit;
+                nextPage = more ? client.get(pagePath(fetched), GerritJson.CHANGES) : null;
+                page = changes.iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public ChangeInfo next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return page.next();
+        }
+
+        private static List<ChangeInfo> join(CompletableFuture<List<ChangeInfo>> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException cause)
+                    throw new UncheckedIOException(cause);
+                throw new UncheckedIOException(new IOException(e.getCause()));
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Gerrit gerrit;
+        private final String query;
+        private final List<String> options = new ArrayList<>();
+        private int pageSize = DEFAULT_PAGE_SIZE;
+        private int limit = Integer.MAX_VALUE;
+
+        /**
+         * @param query The query in Gerrit's search syntax, e.g. `status:open project:foo`
+         */
+        public Builder(Gerrit gerrit, String query) {
+            this.gerrit = gerrit;
+            this.query = query;
+        }
+
+        public ChangeQuery build() {
+            return new ChangeQuery(gerrit.restClient(), query, List.copyOf(options), pageSize, limit);
+        }
+
+        /**
+         * Adds a query option, e.g. `CURRENT_REVISION`.
+         */
+        public Builder option(String option) {
+            options.add(option);
+            return this;
+        }
+
+        public Builder pageSize(int pageSize) {
+            if (pageSize < 1)
+                throw new IllegalArgumentException("Page size must be positive");
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * The maximum number of changes fetched in total, unlimited by default.
+         */
+        public Builder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+    }
+}
@@ -16,53 +16,100 @@
 
 package me.laszloattilatoth.jesher.gerrit;
 
+import me.laszloattilatoth.jesher.metrics.MetricsRegistry;
 import me.laszloattilatoth.jesher.util.Convert;
-import me.laszloattilatoth.jesher.util.Fetcher;
 
 import java.io.IOException;
-import java.net.URL;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Interacts with Gerrit via SSH or the not-so-REST API.
+ * <p>
+ * If SSH connection sharing is enabled (see {@link Builder#sshControlMaster(boolean)}), the reviews are sent
+ * over a single authenticated OpenSSH ControlMaster connection. Each review passes `ControlMaster=auto`,
+ * so ssh starts the shared connection whenever it's not running, e.g. on the first review or after it
+ * expired, see {@link #SSH_CONTROL_PERSIST}. It's stopped by {@link #close()}.
  */
-public class Gerrit {
+public class Gerrit implements ReviewSender, AutoCloseable {
+    public static final int DEFAULT_MAX_SSH_CHANNELS = 10;
+    /**
+     * The idle time after which the shared SSH connection exits, so it expires even if the Gerrit is not closed.
+     */
+    public static final String SSH_CONTROL_PERSIST = "10m";
+
     private final String host;
     private final int sshPort;
     private final String sshUser;
     private final String sshIdentityFile;
+    private final String sshExecutable;
+    private final boolean sshControlMaster;
     private final int webPort;
     private final boolean useHttps;
     private final boolean dryRun;
+    private final GerritMetrics metrics;
+    private final GerritRestClient.Builder restClientBuilder;
 
     private final List<String> sshCommand = new ArrayList<>();
+    private final Semaphore sshChannels;
+    private volatile Path sshControlPath;
+    /**
+     * The temporary directory of the control socket if it's not configured, deleted by {@link #close()}.
+     */
+    private Path sshControlDirectory;
+    private GerritRestClient restClient;
 
-    private Gerrit(String host, int sshPort, String sshUser, String sshIdentityFile, int webPort, boolean useHttps, boolean dryRun) {
+    private Gerrit(String host, int sshPort, String sshUser, String sshIdentityFile, String sshExecutable, boolean sshControlMaster,
+                   String sshControlPath, int maxSshChannels, int webPort, boolean useHttps, boolean dryRun,
+                   MetricsRegistry metrics, GerritRestClient.Builder restClientBuilder) {
         this.host = host;
         this.sshPort = sshPort;
         this.sshUser = sshUser;
         this.sshIdentityFile = sshIdentityFile;
+        this.sshExecutable = sshExecutable;
+        this.sshControlMaster = sshControlMaster;
+        this.sshControlPath = sshControlPath == null ? null : Path.of(sshControlPath);
+        this.sshChannels = new Semaphore(maxSshChannels, true);
         this.webPort = webPort;
         this.useHttps = useHttps;
         this.dryRun = dryRun;
+        this.metrics = GerritMetrics.of(metrics);
+        this.restClientBuilder = restClientBuilder.metrics(metrics);
 
         if (sshUser != null)
             createSshCommand();
     }
 
     private void createSshCommand() {
-        sshCommand.addAll(List.of("ssh", "-p", Integer.toString(sshPort)));
+        sshCommand.addAll(sshBaseCommand());
+        sshCommand.addAll(List.of(sshTarget(), "gerrit", "review", "--json"));
+    }
+
+    private List<String> sshBaseCommand() {
+        List<String> result = new ArrayList<>(List.of(sshExecutable, "-p", Integer.toString(sshPort)));
         if (sshIdentityFile != null) {
-            sshCommand.addAll(List.of("-i", sshIdentityFile));
+            result.addAll(List.of("-i", sshIdentityFile));
         }
-        sshCommand.addAll(List.of(String.format("%s@%s", sshUser, host), "gerrit", "review", "--json"));
+        return result;
+    }
+
+    private String sshTarget() {
+        return String.format("%s@%s", sshUser, host);
     }
 
     public void sendReview(int changeId, int revision, ReviewMessage reviewMessage) throws IOException, InterruptedException {
         sendReview(changeId, revision, reviewMessage, false);
     }
 
+    @Override
     public void sendReview(int changeId, int revision, ReviewMessage reviewMessage, boolean withoutLabels) throws IOException, InterruptedException {
         if (dryRun)
             sendReviewDryRun(changeId, revision, reviewMessage, withoutLabels);
@@ -87,14 +134,102 @@ public class Gerrit {
             throw new RuntimeException("SSH command is not configured for gerrit review, probably SSH username is unset");
         }
         List<String> fullComand = new ArrayList<>(sshCommand);
+        if (sshControlMaster) {
+            fullComand.addAll(sshBaseCommand().size(),
+                    List.of("-o", "ControlMaster=auto", "-o", "ControlPersist=" + SSH_CONTROL_PERSIST, "-S", sshControlPath().toString()));
+        }
         fullComand.add(Integer.toString(changeId));
         fullComand.add(Integer.toString(revision));
 
-        ProcessBuilder builder = new ProcessBuilder(fullComand);
-        builder.redirectInput(ProcessBuilder.Redirect.PIPE);
-        Process p = builder.start();
-        p.outputWriter().write(reviewMessage);
-        p.waitFor();
+        long waitStart = System.nanoTime();
+        sshChannels.acquire();
+        long start = System.nanoTime();
+        metrics.sshChannelWait(start - waitStart);
+        try {
+            ProcessBuilder builder = new ProcessBuilder(fullComand);
+            builder.redirectInput(ProcessBuilder.Redirect.PIPE);
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            Process p = builder.start();
+            byte[] input = reviewMessage.getBytes(StandardCharsets.UTF_8);
+            try (OutputStream stdin = p.getOutputStream()) {
+                stdin.write(input);
+            }
+            String error = new String(p.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).strip();
+            int exitCode = p.waitFor();
+            metrics.sshCommand("review", exitCode, System.nanoTime() - start, input.length);
+            if (exitCode != 0) {
+                throw new IOException(String.format("gerrit review failed on change %d,%d with exit code %d: %s", changeId, revision, exitCode, error));
+            }
+        } finally {
+            sshChannels.release();
+        }
+    }
+
+    /**
+     * @return the path of the control socket, creating its temporary directory if it's not configured
+     */
+    private Path sshControlPath() throws IOException {
+        Path path = sshControlPath;
+        if (path != null)
+            return path;
+        synchronized (this) {
+            if (sshControlPath == null) {
+                sshControlDirectory = Files.createTempDirectory("jesher-ssh");
+                sshControlPath = sshControlDirectory.resolve("control");
+            }
+            return sshControlPath;
+        }
+    }
+
+    /**
+     * Stops the shared SSH connection, if it's running, and deletes its temporary directory.
+     * A later review starts a new one.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (sshControlMaster && sshControlPath != null && Files.exists(sshControlPath))
+                stopSshControlMaster();
+        } finally {
+            deleteSshControlDirectory();
+        }
+    }
+
+    private void stopSshControlMaster() throws IOException {
+        List<String> command = sshBaseCommand();
+        command.addAll(List.of("-S", sshControlPath.toString(), "-O", "exit", sshTarget()));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            builder.start().waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping SSH control master", e);
+        }
+    }
+
+    private void deleteSshControlDirectory() throws IOException {
+        if (sshControlDirectory == null)
+            return;
+
+        Files.deleteIfExists(sshControlPath);
+        Files.deleteIfExists(sshControlDirectory);
+        sshControlDirectory = null;
+        sshControlPath = null;
+    }
+
+    /**
+     * @return the ssh command running the given Gerrit command, e.g. `gerrit stream-events`.
+     */
+    public List<String> sshCommand(String... gerritCommand) {
+        if (sshUser == null) {
+            throw new RuntimeException("SSH command is not configured, probably SSH username is unset");
+        }
+        List<String> result = sshBaseCommand();
+        result.add(sshTarget());
+        result.addAll(List.of(gerritCommand));
+        return result;
     }
 
     public String host() {
@@ -124,15 +259,44 @@ public class Gerrit {
         return String.format("ssh://%s@%s:%d", sshUser, host, sshPort);
     }
 
+    /**
+     * @return the REST API client, created on first use and shared by the callers.
+     */
+    public synchronized GerritRestClient restClient() {
+        if (restClient == null)
+            restClient = restClientBuilder.baseUrl(getUrl()).build();
+        return restClient;
+    }
+
     /**
      * Fetch from Gerrit REST API and return as a string containing valid JSON.
      *
      * @param pathAndQuery The path and query part of the URL, others come from current object
-     * @return a string containing valid JSON by removing leading 4 dummy chars.
-     * @throws IOException If any error occurs (connection error, read error)
+     * @return a string containing valid JSON, without the leading XSSI protection.
+     * @throws IOException If any error occurs (connection error, read error, unexpected HTTP status)
      */
     public String fetch(String pathAndQuery) throws IOException {
-        return Fetcher.fetch(new URL(getUrl(pathAndQuery))).substring(4);
+        return join(restClient().getString(pathAndQuery));
+    }
+
+    /**
+     * Fetch from Gerrit REST API and decode the response while it's being read.
+     *
+     * @param decoder The decoder of the entity, e.g. {@link GerritJson#CHANGE}
+     * @throws IOException If any error occurs (connection error, read error, unexpected HTTP status, invalid JSON)
+     */
+    public <T> T fetch(String pathAndQuery, GerritJson.Decoder<T> decoder) throws IOException {
+        return join(restClient().get(pathAndQuery, decoder));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            throw new IOException(e.getCause());
+        }
     }
 
     public static class Builder {
@@ -142,9 +306,15 @@ public class Gerrit {
         private int sshPort = 29418;
         private String sshUser;
         private String sshIdentityFile;
+        private String sshExecutable = "ssh";
+        private boolean sshControlMaster = false;
+        private String sshControlPath;
+        private int maxSshChannels = DEFAULT_MAX_SSH_CHANNELS;
         private Integer webPort;
+        private final GerritRestClient.Builder restClientBuilder = new GerritRestClient.Builder(null);
         private boolean useHttps = true;
         private boolean dryRun = false;
+        private MetricsRegistry metrics;
 
         public Builder(String host) {
             this.host = host;
@@ -152,7 +322,8 @@ public class Gerrit {
 
         public Gerrit build() {
             updateWebPort();
-            return new Gerrit(host, sshPort, sshUser, sshIdentityFile, webPort, useHttps, dryRun);
+            return new Gerrit(host, sshPort, sshUser, sshIdentityFile, sshExecutable, sshControlMaster, sshControlPath, maxSshChannels,
+                    webPort, useHttps, dryRun, metrics, restClientBuilder);
         }
 
         private void updateWebPort() {
@@ -176,6 +347,38 @@ public class Gerrit {
             return this;
         }
 
+        public Builder sshExecutable(String sshExecutable) {
+            this.sshExecutable = sshExecutable;
+            return this;
+        }
+
+        /**
+         * Share one SSH connection between the reviews via an OpenSSH ControlMaster. Stopped by {@link Gerrit#close()}.
+         */
+        public Builder sshControlMaster(boolean sshControlMaster) {
+            this.sshControlMaster = sshControlMaster;
+            return this;
+        }
+
+        /**
+         * The path of the control socket. By default, it's created in a new temporary directory.
+         */
+        public Builder sshControlPath(String sshControlPath) {
+            this.sshControlPath = sshControlPath;
+            return this;
+        }
+
+        /**
+         * Caps the number of concurrent reviews, as the SSH server limits the channels of a shared connection
+         * (`MaxSessions`, 10 by default in OpenSSH).
+         */
+        public Builder maxSshChannels(int maxSshChannels) {
+            if (maxSshChannels < 1)
+                throw new IllegalArgumentException("maxSshChannels must be positive");
+            this.maxSshChannels = maxSshChannels;
+            return this;
+        }
+
         public Builder webPort(int webPort) {
             this.webPort = webPort;
             return this;
@@ -187,9 +390,43 @@ public class Gerrit {
             return this;
         }
 
+        /**
+         * The username and the HTTP password of the REST API, see {@link GerritRestClient.Builder#credentials(String, String)}.
+         */
+        public Builder httpCredentials(String username, String password) {
+            restClientBuilder.credentials(username, password);
+            return this;
+        }
+
+        public Builder httpConnectTimeout(Duration connectTimeout) {
+            restClientBuilder.connectTimeout(connectTimeout);
+            return this;
+        }
+
+        public Builder httpRequestTimeout(Duration requestTimeout) {
+            restClientBuilder.requestTimeout(requestTimeout);
+            return this;
+        }
+
+        /**
+         * Caches the REST API responses, e.g. of {@link Gerrit#fetch(String)} and {@link RelatedChangeFetcher}.
+         */
+        public Builder httpCache(GerritResponseCache cache) {
+            restClientBuilder.cache(cache);
+            return this;
+        }
+
         public Builder dryRun(boolean dryRun) {
             this.dryRun = dryRun;
             return this;
         }
+
+        /**
+         * Instruments the REST calls and the SSH commands, see {@link GerritMetrics} for the meters. Disabled by default.
+         */
+        public Builder metrics(MetricsRegistry metrics) {
+            this.metrics = metrics;
+            return this;
+        }
     }
 }
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * An event of `gerrit stream-events`, e.g. `patchset-created`.
+ *
+ * @param type      The event type
+ * @param createdOn The `eventCreatedOn` field, in seconds since the epoch
+ * @param project   The project of the change, or null if the event is not about a change
+ * @param branch    The branch of the change, or null
+ * @param patchSet  The change and revision number, or null if the event has no patch set
+ * @param json      The original JSON line, for the fields not decoded here
+ */
+public record GerritEvent(String type, long createdOn, String project, String branch, PatchSet patchSet, String json) {
+    /**
+     * Decodes a line of `gerrit stream-events`, skipping the unknown fields.
+     */
+    public static GerritEvent parse(String line) throws IOException {
+        String type = null;
+        long createdOn = 0;
+        String project = null;
+        String branch = null;
+        int changeNumber = 0;
+        int revision = 0;
+
+        try (JsonParser parser = GerritJson.FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser, "Expected an event object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "type" -> type = parser.getValueAsString();
+                    case "eventCreatedOn" -> createdOn = parser.getLongValue();
+                    case "change" -> {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String changeField = parser.getCurrentName();
+                            parser.nextToken();
+                            switch (changeField) {
+                                case "number" -> changeNumber = parser.getValueAsInt();
+                                case "project" -> project = parser.getValueAsString();
+                                case "branch" -> branch = parser.getValueAsString();
+                                default -> parser.skipChildren();
+                            }
+                        }
+                    }
+                    case "patchSet" -> {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String patchSetField = parser.getCurrentName();
+                            parser.nextToken();
+                            if (patchSetField.equals("number"))
+                                revision = parser.getValueAsInt();
+                            else
+                                parser.skipChildren();
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        PatchSet patchSet = changeNumber != 0 && revision != 0 ? new PatchSet(changeNumber, revision) : null;
+        return new GerritEvent(type, createdOn, project, branch, patchSet, line);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumes `gerrit stream-events` over SSH and passes the events to a handler.
+ * <p>
+ * A reader thread decodes the events line by line and puts them into a bounded queue, drained by the
+ * handler threads. If the handlers are slow, the reader blocks on the full queue and stops reading,
+ * so the backpressure reaches the ssh process and the server. The events of a change may be handled
+ * concurrently if there is more than one handler thread.
+ * <p>
+ * If the connection is lost, the stream reconnects with exponential backoff. Events emitted while
+ * disconnected are lost; the {@link GapListener} is notified so the caller can catch up by a query.
+ */
+public class GerritEventStream implements AutoCloseable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMinutes(1);
+
+    @FunctionalInterface
+    public interface EventHandler {
+        void handle(GerritEvent event) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface GapListener {
+        /**
+         * Called after a reconnection, before passing the new events.
+         *
+         * @param lastCreatedOn The creation time of the last event before the disconnection (in seconds), or 0 if none
+         * @param reconnects    The number of reconnections so far
+         */
+        void onGap(long lastCreatedOn, long reconnects);
+    }
+
+    /**
+     * Counters of the stream.
+     *
+     * @param received  The events read from the stream
+     * @param handled   The events passed to the handler (including the failed ones)
+     * @param failed    The events the handler threw an exception for
+     * @param malformed The lines which could not be decoded
+     */
+    public record Stats(long received, long handled, long failed, long malformed, long reconnects) {
+    }
+
+    private final List<String> command;
+    private final EventHandler handler;
+    private final GapListener gapListener;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final BlockingQueue<GerritEvent> queue;
+    private final Thread reader;
+    private final List<Thread> handlers = new ArrayList<>();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private volatile boolean closed;
+    private volatile boolean readerDone;
+    private Process process;
+
+    private GerritEventStream(List<String> command, EventHandler handler, GapListener gapListener, int queueCapacity,
+                              int handlerThreads, Duration initialBackoff, Duration maxBackoff) {
+        this.command = command;
+        this.handler = handler;
+        this.gapListener = gapListener;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.reader = new Thread(this::read, "gerrit-stream-events-reader");
+        for (int i = 0; i != handlerThreads; ++i) {
+            handlers.add(new Thread(this::handle, "gerrit-stream-events-handler-" + i));
+        }
+    }
+
+    private void start() {
+        handlers.forEach(Thread::start);
+        reader.start();
+    }
+
+    public Stats stats() {
+        return new Stats(received.get(), handled.get(), failed.get(), malformed.get(), reconnects.get());
+    }
+
+    private void read() {
+        long lastCreatedOn = 0;
+        int failures = 0;
+        try {
+            while (!closed) {
+                if (reconnects.get() > 0 || failures > 0) {
+                    TimeUnit.NANOSECONDS.sleep(backoffNanos(failures));
+                    if (closed)
+                        break;
+                    reconnects.incrementAndGet();
+                    if (gapListener != null)
+                        gapListener.onGap(lastCreatedOn, reconnects.get());
+                }
+                boolean gotEvent = false;
+                try (BufferedReader lines = startProcess()) {
+                    String line;
+                    while ((line = lines.readLine()) != null) {
+                        GerritEvent event;
+                        try {
+                            event = GerritEvent.parse(line);
+                        } catch (IOException e) {
+                            malformed.incrementAndGet();
+                            continue;
+                        }
+                        received.incrementAndGet();
+                        gotEvent = true;
+                        lastCreatedOn = Math.max(lastCreatedOn, event.createdOn());
+                        queue.put(event);
+                    }
+                } catch (IOException e) {
+                    // reconnect below
+                } finally {
+                    stopProcess();
+                }
+                // a connection delivering events resets the backoff
+                failures = gotEvent ? 1 : failures + 1;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            readerDone = true;
+        }
+    }
+
+    long backoffNanos(int failures) {
+        long delay = initialBackoffNanos << Math.min(Math.max(failures - 1, 0), 32);
+        return delay < 0 || delay > maxBackoffNanos ? maxBackoffNanos : delay;
+    }
+
+    private synchronized BufferedReader startProcess() throws IOException {
+        if (closed)
+            throw new IOException("Stream is closed");
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectInput(ProcessBuilder.Redirect.PIPE);
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        process = builder.start();
+        process.getOutputStream().close();
+        return process.inputReader();
+    }
+
+    private synchronized void stopProcess() {
+        if (process != null) {
+            process.destroy();
+            process = null;
+        }
+    }
+
+    private void handle() {
+        try {
+            while (true) {
+                GerritEvent event = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    // the reader may queue its last events between the poll and setting the flag
+                    if (readerDone && queue.isEmpty())
+                        break;
+                    continue;
+                }
+                try {
+                    handler.handle(event);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                }
+                handled.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops reading, lets the handlers finish the already queued events, and waits for them.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        stopProcess();
+        reader.interrupt();
+        reader.join();
+        for (Thread thread : handlers) {
+            thread.join();
+        }
+    }
+
+    public static class Builder {
+        private final List<String> command;
+        private final EventHandler handler;
+        private GapListener gapListener;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private int handlerThreads = 1;
+        private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+        private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+
+        /**
+         * Streams the events by the SSH settings of the Gerrit instance.
+         */
+        public Builder(Gerrit gerrit, EventHandler handler) {
+            this(gerrit.sshCommand("gerrit", "stream-events"), handler);
+        }
+
+        /**
+         * Streams the events printed by a command, one JSON object per line, e.g. a recorded stream.
+         */
+        public Builder(List<String> command, EventHandler handler) {
+            this.command = List.copyOf(command);
+            this.handler = handler;
+        }
+
+        /**
+         * Starts reading the events.
+         */
+        public GerritEventStream start() {
+            GerritEventStream stream = new GerritEventStream(command, handler, gapListener, queueCapacity, handlerThreads,
+                    initialBackoff, maxBackoff);
+            stream.start();
+            return stream;
+        }
+
+        public Builder gapListener(GapListener gapListener) {
+            this.gapListener = gapListener;
+            return this;
+        }
+
+        /**
+         * The number of decoded events waiting for the handlers, before the reading stops.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity < 1)
+                throw new IllegalArgumentException("queueCapacity must be positive");
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder handlerThreads(int handlerThreads) {
+            if (handlerThreads < 1)
+                throw new IllegalArgumentException("handlerThreads must be positive");
+            this.handlerThreads = handlerThreads;
+            return this;
+        }
+
+        public Builder reconnectBackoff(Duration initialBackoff, Duration maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes Gerrit entities by the streaming parser of Jackson, straight into records, without building a tree.
+ * Unknown fields are skipped.
+ */
+public final class GerritJson {
+    static final JsonFactory FACTORY = new JsonFactory();
+
+    /**
+     * Decodes a value starting at the current token of the parser.
+     */
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T decode(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * The response of `changes/X/revisions/Y/related`.
+     */
+    public static final Decoder<List<RelatedChange>> RELATED_CHANGES = GerritJson::relatedChanges;
+    public static final Decoder<ChangeInfo> CHANGE = GerritJson::change;
+    /**
+     * The response of a query with a single `q` parameter.
+     */
+    public static final Decoder<List<ChangeInfo>> CHANGES = parser -> list(parser, GerritJson::change);
+
+    private GerritJson() {}
+
+    public static <T> T decode(InputStream stream, Decoder<T> decoder) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(stream)) {
+            parser.nextToken();
+            return decoder.decode(parser);
+        }
+    }
+
+    private static List<RelatedChange> relatedChanges(JsonParser parser) throws IOException {
+        List<RelatedChange> result = List.of();
+        expect(parser, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("changes"))
+                result = list(parser, GerritJson::relatedChange);
+            else
+                parser.skipChildren();
+        }
+        return result;
+    }
+
+    private static RelatedChange relatedChange(JsonParser parser) throws IOException {
+        int changeNumber = 0;
+        int revision = 0;
+        String changeId = null;
+        int latestRevision = 0;
+        String commitId = null;
+        String parentCommitId = null;
+        String status = null;
+
+        expect(parser, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "_change_number" -> changeNumber = parser.getIntValue();
+                case "_revision_number" -> revision = parser.getIntValue();
+                case "_current_revision_number" -> latestRevision = parser.getIntValue();
+                case "change_id" -> changeId = parser.getValueAsString();
+                case "status" -> status = parser.getValueAsString();
+                case "commit" -> {
+                    expect(parser, JsonToken.START_OBJECT);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String commitField = parser.getCurrentName();
+                        parser.nextToken();
+                        if (commitField.equals("commit"))
+                            commitId = parser.getValueAsString();
+                        else if (commitField.equals("parents"))
+                            parentCommitId = firstParent(parser);
+                        else
+                            parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return new RelatedChange(changeNumber, revision, changeId, latestRevision, commitId, parentCommitId, status);
+    }
+
+    private static String firstParent(JsonParser parser) throws IOException {
+        List<String> parents = list(parser, p -> {
+            String commit = null;
+            expect(p, JsonToken.START_OBJECT);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if (field.equals("commit"))
+                    commit = p.getValueAsString();
+                else
+                    p.skipChildren();
+            }
+            return commit;
+        });
+        return parents.isEmpty() ? null : parents.get(0);
+    }
+
+    private static ChangeInfo change(JsonParser parser) throws IOException {
+        String id = null;
+        int number = 0;
+        String project = null;
+        String branch = null;
+        String changeId = null;
+        String subject = null;
+        String status = null;
+        String updated = null;
+        String currentRevision = null;
+        List<RevisionInfo> revisions = List.of();
+        boolean moreChanges = false;
+
+        expect(parser, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> id = parser.getValueAsString();
+                case "_number" -> number = parser.getIntValue();
+                case "project" -> project = parser.getValueAsString();
+                case "branch" -> branch = parser.getValueAsString();
+                case "change_id" -> changeId = parser.getValueAsString();
+                case "subject" -> subject = parser.getValueAsString();
+                case "status" -> status = parser.getValueAsString();
+                case "updated" -> updated = parser.getValueAsString();
+                case "current_revision" -> currentRevision = parser.getValueAsString();
+                case "revisions" -> revisions = revisions(parser);
+                case "_more_changes" -> moreChanges = parser.getValueAsBoolean();
+                default -> parser.skipChildren();
+            }
+        }
+        return new ChangeInfo(id, number, project, branch, changeId, subject, status, updated, currentRevision, revisions, moreChanges);
+    }
+
+    /**
+     * @return the revisions of the commit ID to revision info map
+     */
+    private static List<RevisionInfo> revisions(JsonParser parser) throws IOException {
+        List<RevisionInfo> result = new ArrayList<>();
+        expect(parser, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String commitId = parser.getCurrentName();
+            parser.nextToken();
+            int number = 0;
+            String ref = null;
+            String kind = null;
+            String created = null;
+            expect(parser, JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "_number" -> number = parser.getIntValue();
+                    case "ref" -> ref = parser.getValueAsString();
+                    case "kind" -> kind = parser.getValueAsString();
+                    case "created" -> created = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            result.add(new RevisionInfo(commitId, number, ref, kind, created));
+        }
+        return result;
+    }
+
+    private static <T> List<T> list(JsonParser parser, Decoder<T> element) throws IOException {
+        expect(parser, JsonToken.START_ARRAY);
+        List<T> result = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            result.add(element.decode(parser));
+        }
+        return result;
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws JsonParseException {
+        if (parser.currentToken() != token)
+            throw new JsonParseException(parser, String.format("Expected %s, got %s", token, parser.currentToken()));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.metrics.MetricsRegistry;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+/**
+ * The instrumentation of the Gerrit client. The meters are
+ * <ul>
+ * <li>`gerrit.rest.latency`: histogram of the nanoseconds until the response headers, by `endpoint` and `status`</li>
+ * <li>`gerrit.rest.bytes.in`: counter of the received body bytes (compressed, if so), by `endpoint`</li>
+ * <li>`gerrit.rest.errors`: counter by `endpoint` and `status`, 0 for connection errors</li>
+ * <li>`gerrit.ssh.latency`: histogram of the nanoseconds of an SSH command, by `command` and `exit_code`</li>
+ * <li>`gerrit.ssh.bytes.out`: counter of the bytes written to an SSH command, by `command`</li>
+ * <li>`gerrit.ssh.errors`: counter by `command` and `exit_code`</li>
+ * <li>`gerrit.ssh.channel.wait`: histogram of the nanoseconds waited for a free SSH channel</li>
+ * <li>`gerrit.outbox.queue.wait`: histogram of the nanoseconds between submitting a review and its first attempt</li>
+ * </ul>
+ * The endpoints are the paths without the query, the numbers and the commit ids replaced by `*`,
+ * e.g. `changes/*&#47;revisions/*&#47;related`.
+ */
+final class GerritMetrics {
+    static final GerritMetrics DISABLED = new GerritMetrics(MetricsRegistry.NOOP);
+
+    private static final Pattern ID_SEGMENT = Pattern.compile("(?<=^|/)(?:\\d+|[0-9a-f]{40}|[^/]+~[^/]+)(?=/|$)");
+
+    private final MetricsRegistry registry;
+    private final boolean enabled;
+
+    private GerritMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        this.enabled = registry.enabled();
+    }
+
+    static GerritMetrics of(MetricsRegistry registry) {
+        return registry == null || !registry.enabled() ? DISABLED : new GerritMetrics(registry);
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    static String endpoint(String pathAndQuery) {
+        int query = pathAndQuery.indexOf('?');
+        String path = query < 0 ? pathAndQuery : pathAndQuery.substring(0, query);
+        return ID_SEGMENT.matcher(path).replaceAll("*");
+    }
+
+    void restResponse(String endpoint, int status, long nanos) {
+        if (!enabled)
+            return;
+        String statusTag = Integer.toString(status);
+        registry.histogram("gerrit.rest.latency", "endpoint", endpoint, "status", statusTag).record(nanos);
+        if (status != 200 && status != 304)
+            registry.counter("gerrit.rest.errors", "endpoint", endpoint, "status", statusTag).increment();
+    }
+
+    void restFailure(String endpoint) {
+        if (enabled)
+            registry.counter("gerrit.rest.errors", "endpoint", endpoint, "status", "0").increment();
+    }
+
+    void restBytesIn(String endpoint, long bytes) {
+        if (enabled)
+            registry.counter("gerrit.rest.bytes.in", "endpoint", endpoint).increment(bytes);
+    }
+
+    /**
+     * Counts the bytes read from the stream when it's closed.
+     */
+    InputStream countingRestBody(String endpoint, InputStream stream) {
+        if (!enabled)
+            return stream;
+        return new FilterInputStream(stream) {
+            private long count = 0;
+
+            @Override
+            public int read() throws IOException {
+                int c = super.read();
+                if (c != -1)
+                    ++count;
+                return c;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0)
+                    count += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                restBytesIn(endpoint, count);
+                count = 0;
+            }
+        };
+    }
+
+    void sshCommand(String command, int exitCode, long nanos, long bytesOut) {
+        if (!enabled)
+            return;
+        String exitCodeTag = Integer.toString(exitCode);
+        registry.histogram("gerrit.ssh.latency", "command", command, "exit_code", exitCodeTag).record(nanos);
+        registry.counter("gerrit.ssh.bytes.out", "command", command).increment(bytesOut);
+        if (exitCode != 0)
+            registry.counter("gerrit.ssh.errors", "command", command, "exit_code", exitCodeTag).increment();
+    }
+
+    void sshChannelWait(long nanos) {
+        if (enabled)
+            registry.histogram("gerrit.ssh.channel.wait").record(nanos);
+    }
+
+    void outboxQueueWait(long nanos) {
+        if (enabled)
+            registry.histogram("gerrit.outbox.queue.wait").record(nanos);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Response cache of {@link GerritRestClient}, keyed by path and query.
+ * <p>
+ * A response is served from the cache until its TTL expires; the TTL is chosen by the first matching
+ * endpoint pattern, or the default one. After that the response is revalidated by a conditional request
+ * (`If-None-Match`) if it had an ETag, otherwise fetched again. Concurrent requests of the same key are
+ * served by a single network call. The cache is bounded by the total size of the bodies, and evicts
+ * the least recently used responses.
+ */
+public class GerritResponseCache {
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    public static final Duration DEFAULT_TTL = Duration.ofSeconds(10);
+
+    /**
+     * The result of a network call made for the cache.
+     *
+     * @param notModified Whether the server answered 304 to the conditional request
+     * @param etag        The ETag of the response, or null
+     * @param body        The body of the response without the XSSI prefix, or null if not modified
+     */
+    record Response(boolean notModified, String etag, byte[] body) {
+    }
+
+    /**
+     * Counters of the cache.
+     *
+     * @param hits          Served from the cache without a network call
+     * @param revalidations Served from the cache after a 304 answer
+     * @param misses        Fetched from the server
+     * @param collapsed     Waited for the network call of a concurrent request
+     */
+    public record Stats(long hits, long revalidations, long misses, long collapsed, long evictions, long bytes, int entries) {
+        /**
+         * @return the ratio of the requests served without downloading the body.
+         */
+        public double hitRatio() {
+            long requests = hits + revalidations + misses + collapsed;
+            return requests == 0 ? 0.0 : (double) (hits + revalidations + collapsed) / requests;
+        }
+    }
+
+    private record Entry(String etag, byte[] body, long fetchedNanos) {
+    }
+
+    private record EndpointTtl(Pattern pattern, long ttlNanos) {
+    }
+
+    private final long maxBytes;
+    private final long defaultTtlNanos;
+    private final List<EndpointTtl> endpointTtls;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collapsed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private GerritResponseCache(long maxBytes, long defaultTtlNanos, List<EndpointTtl> endpointTtls, LongSupplier clock) {
+        this.maxBytes = maxBytes;
+        this.defaultTtlNanos = defaultTtlNanos;
+        this.endpointTtls = endpointTtls;
+        this.clock = clock;
+    }
+
+    /**
+     * @param key   The path and query
+     * @param fetch Makes the network call, conditional if the ETag argument is not null
+     * @return the body of the response
+     */
+    CompletableFuture<byte[]> get(String key, Function<String, CompletableFuture<Response>> fetch) {
+        Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        if (cached != null && clock.getAsLong() - cached.fetchedNanos() < ttlNanos(key)) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached.body());
+        }
+
+        CompletableFuture<byte[]> own = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, own);
+        if (running != null) {
+            collapsed.increment();
+            return running;
+        }
+
+        String etag = cached == null ? null : cached.etag();
+        CompletableFuture<Response> request;
+        try {
+            request = fetch.apply(etag);
+        } catch (RuntimeException e) {
+            inFlight.remove(key, own);
+            own.completeExceptionally(e);
+            return own;
+        }
+        request.whenComplete((response, error) -> {
+            byte[] body = null;
+            if (error == null && response.notModified() && cached != null) {
+                revalidations.increment();
+                body = cached.body();
+                put(key, new Entry(etag, body, clock.getAsLong()));
+            } else if (error == null) {
+                misses.increment();
+                body = response.body();
+                put(key, new Entry(response.etag(), body, clock.getAsLong()));
+            }
+            // the entry is already updated, so a new request finds it
+            inFlight.remove(key, own);
+            if (error != null)
+                own.completeExceptionally(error);
+            else
+                own.complete(body);
+        });
+        return own;
+    }
+
+    private long ttlNanos(String key) {
+        for (EndpointTtl endpoint : endpointTtls) {
+            if (endpoint.pattern().matcher(key).find())
+                return endpoint.ttlNanos();
+        }
+        return defaultTtlNanos;
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = entries.remove(key);
+        if (previous != null)
+            bytes -= previous.body().length;
+        if (entry.body().length > maxBytes)
+            return;
+
+        entries.put(key, entry);
+        bytes += entry.body().length;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().body().length;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    public synchronized void invalidate(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null)
+            bytes -= previous.body().length;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), revalidations.sum(), misses.sum(), collapsed.sum(), evictions.sum(), bytes, entries.size());
+    }
+
+    public static class Builder {
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private Duration defaultTtl = DEFAULT_TTL;
+        private final List<EndpointTtl> endpointTtls = new ArrayList<>();
+        private LongSupplier clock = System::nanoTime;
+
+        public GerritResponseCache build() {
+            return new GerritResponseCache(maxBytes, defaultTtl.toNanos(), List.copyOf(endpointTtls), clock);
+        }
+
+        /**
+         * The limit of the total size of the cached bodies.
+         */
+        public Builder maxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder defaultTtl(Duration defaultTtl) {
+            this.defaultTtl = defaultTtl;
+            return this;
+        }
+
+        /**
+         * Sets the TTL of the endpoints matching the regex, e.g. `/related$` or `^changes/\?`.
+         * The patterns are checked in the order of the calls, and matched against the path and query.
+         * A zero TTL means that the response is always revalidated.
+         */
+        public Builder ttl(String endpointRegex, Duration ttl) {
+            endpointTtls.add(new EndpointTtl(Pattern.compile(endpointRegex), ttl.toNanos()));
+            return this;
+        }
+
+        Builder clock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.laszloattilatoth.jesher.metrics.MetricsRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Asynchronous client of the Gerrit REST API on top of {@link HttpClient}.
+ * <p>
+ * The connections are pooled by the HTTP client, HTTP/2 is used when the server supports it, and responses
+ * are requested gzip-compressed. With credentials, the authenticated endpoints (`/a/...`) are called
+ * with preemptive basic authentication. The `)]}'` prefix protecting against XSSI is removed from
+ * the response stream without copying the body.
+ */
+public class GerritRestClient {
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final byte[] XSSI_PREFIX = ")]}'".getBytes(StandardCharsets.US_ASCII);
+    private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final String baseUrl;
+    private final String authorization;
+    private final Duration requestTimeout;
+    private final GerritResponseCache cache;
+    private final GerritMetrics metrics;
+    private final HttpClient client;
+
+    private GerritRestClient(String baseUrl, String username, String password, Duration connectTimeout, Duration requestTimeout,
+                             GerritResponseCache cache, GerritMetrics metrics) {
+        this.baseUrl = username == null ? baseUrl : baseUrl + "a/";
+        this.authorization = username == null ? null
+                : "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.requestTimeout = requestTimeout;
+        this.cache = cache;
+        this.metrics = metrics;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    public String getUrl(String pathAndQuery) {
+        return baseUrl + (pathAndQuery.startsWith("/") ? pathAndQuery.substring(1) : pathAndQuery);
+    }
+
+    /**
+     * @return the cache of the responses, or null if they are not cached.
+     */
+    public GerritResponseCache cache() {
+        return cache;
+    }
+
+    /**
+     * @return the JSON response body without the XSSI prefix, as a stream which must be closed by the caller.
+     * With a cache the whole body is read before completing.
+     */
+    public CompletableFuture<InputStream> getStream(String pathAndQuery) {
+        String path = pathAndQuery.startsWith("/") ? pathAndQuery.substring(1) : pathAndQuery;
+        if (cache != null)
+            return cache.get(path, etag -> fetchForCache(path, etag)).thenApply(ByteArrayInputStream::new);
+
+        String url = getUrl(path);
+        String endpoint = metrics.enabled() ? GerritMetrics.endpoint(path) : null;
+        long start = System.nanoTime();
+        return instrument(endpoint, client.sendAsync(request(url, null), HttpResponse.BodyHandlers.ofInputStream()))
+                .thenApply(response -> {
+                    try {
+                        return body(url, response, endpoint, start);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    private <T> CompletableFuture<T> instrument(String endpoint, CompletableFuture<T> response) {
+        if (!metrics.enabled())
+            return response;
+        return response.whenComplete((result, e) -> {
+            if (e != null)
+                metrics.restFailure(endpoint);
+        });
+    }
+
+    private CompletableFuture<GerritResponseCache.Response> fetchForCache(String path, String etag) {
+        String url = getUrl(path);
+        String endpoint = metrics.enabled() ? GerritMetrics.endpoint(path) : null;
+        long start = System.nanoTime();
+        return instrument(endpoint, client.sendAsync(request(url, etag), HttpResponse.BodyHandlers.ofInputStream()))
+                .thenApply(response -> {
+                    if (response.statusCode() == 304) {
+                        metrics.restResponse(endpoint, 304, System.nanoTime() - start);
+                        try (InputStream ignored = response.body()) {
+                            return new GerritResponseCache.Response(true, etag, null);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                    try (InputStream stream = body(url, response, endpoint, start)) {
+                        return new GerritResponseCache.Response(false, response.headers().firstValue("ETag").orElse(null), stream.readAllBytes());
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    private HttpRequest request(String url, String etag) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .GET();
+        if (authorization != null)
+            request.header("Authorization", authorization);
+        if (etag != null)
+            request.header("If-None-Match", etag);
+        return request.build();
+    }
+
+    public CompletableFuture<String> getString(String pathAndQuery) {
+        return read(pathAndQuery, stream -> new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes the JSON response into the given type while it's being read. Unknown properties are ignored.
+     */
+    public <T> CompletableFuture<T> get(String pathAndQuery, Class<T> type) {
+        return read(pathAndQuery, stream -> MAPPER.readValue(stream, type));
+    }
+
+    public <T> CompletableFuture<T> get(String pathAndQuery, TypeReference<T> type) {
+        return read(pathAndQuery, stream -> MAPPER.readValue(stream, type));
+    }
+
+    /**
+     * Decodes the JSON response by the streaming parser while it's being read, see {@link GerritJson}.
+     */
+    public <T> CompletableFuture<T> get(String pathAndQuery, GerritJson.Decoder<T> decoder) {
+        return read(pathAndQuery, stream -> GerritJson.decode(stream, decoder));
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(InputStream stream) throws IOException;
+    }
+
+    private <T> CompletableFuture<T> read(String pathAndQuery, BodyReader<T> reader) {
+        return getStream(pathAndQuery).thenApply(stream -> {
+            try (stream) {
+                return reader.read(stream);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private InputStream body(String url, HttpResponse<InputStream> response, String endpoint, long start) throws IOException {
+        metrics.restResponse(endpoint, response.statusCode(), System.nanoTime() - start);
+        InputStream stream = metrics.countingRestBody(endpoint, response.body());
+        if (response.headers().firstValue("Content-Encoding").map("gzip"::equalsIgnoreCase).orElse(false))
+            stream = new GZIPInputStream(stream);
+
+        if (response.statusCode() != 200) {
+            try (InputStream error = stream) {
+                throw new GerritRestException(url, response.statusCode(), new String(error.readNBytes(1024), StandardCharsets.UTF_8).strip());
+            }
+        }
+        return skipXssiPrefix(stream);
+    }
+
+    /**
+     * Skips the `)]}'` line if the stream starts with it.
+     */
+    static InputStream skipXssiPrefix(InputStream stream) throws IOException {
+        PushbackInputStream result = new PushbackInputStream(stream, XSSI_PREFIX.length);
+        byte[] prefix = result.readNBytes(XSSI_PREFIX.length);
+        if (Arrays.equals(prefix, XSSI_PREFIX)) {
+            int c = result.read();
+            if (c != '\n' && c != -1)
+                result.unread(c);
+        } else {
+            result.unread(prefix);
+        }
+        return result;
+    }
+
+    public static class Builder {
+        private String baseUrl;
+        private String username;
+        private String password;
+        private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private Duration requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+        private GerritResponseCache cache;
+        private MetricsRegistry metrics;
+
+        /**
+         * @param baseUrl The URL of Gerrit, ending with `/`, see {@link Gerrit#getUrl()}.
+         */
+        public Builder(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        public GerritRestClient build() {
+            return new GerritRestClient(baseUrl, username, password, connectTimeout, requestTimeout, cache, GerritMetrics.of(metrics));
+        }
+
+        Builder baseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        /**
+         * The username and the HTTP password generated in the settings of Gerrit.
+         */
+        public Builder credentials(String username, String password) {
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        public Builder cache(GerritResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * The registry of the latency, traffic and error meters, see {@link GerritMetrics}. Disabled by default.
+         */
+        public Builder metrics(MetricsRegistry metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+    }
+}
@@ -16,39 +16,44 @@
 
 package me.laszloattilatoth.jesher.gerrit;
 
-import me.laszloattilatoth.jesher.util.Convert;
-
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class RelatedChangeFetcher {
+    public static final int DEFAULT_CONCURRENCY = 4;
+
     private final Gerrit gerrit;
+    private final RelatedChangeGraph graph;
 
     public RelatedChangeFetcher(Gerrit gerrit) {
+        this(gerrit, null);
+    }
+
+    /**
+     * @param graph The graph answering the chains of the already seen patch sets without a request, and
+     *              collecting the fetched ones; its statuses are kept up to date by its owner
+     */
+    public RelatedChangeFetcher(Gerrit gerrit, RelatedChangeGraph graph) {
         this.gerrit = gerrit;
+        this.graph = graph;
     }
 
     public List<RelatedChange> fetch(int change, int revision) {
         try {
-            Map<String, Object> data = Convert.fromJsonToMap(gerrit.fetch(String.format("changes/%d/revisions/%d/related", change, revision)));
-            System.out.println(Convert.toJson(data));
-
-            List<Map<String, Object>> changes = (List<Map<String, Object>>) data.get("changes");
-            return changes.stream().map(c -> {
-                Map<String, Object> commit = (Map<String, Object>) c.get("commit");
-                return new RelatedChange(
-                        (Integer) c.get("_change_number"),
-                        (Integer) c.get("_change_number"),
-                        (String) c.get("change_id"),
-                        (Integer) c.get("_current_revision_number"),
-                        (String) commit.get("commit"),
-                        (String) ((List<Map<String, Object>>) commit.get("parents")).get(0).get("commit"),
-                        (String) c.get("status")
-                );
-            }).toList();
+            return fetchRelated(change, revision);
         } catch (/* MalformedURLException | JsonProcessingException | */ IOException e) {
             e.printStackTrace();
         }
@@ -56,11 +61,120 @@ public class RelatedChangeFetcher {
         return null;
     }
 
+    private List<RelatedChange> fetchRelated(int change, int revision) throws IOException {
+        return gerrit.fetch(String.format("changes/%d/revisions/%d/related", change, revision), GerritJson.RELATED_CHANGES);
+    }
+
     public List<RelatedChange> fetchAsChain(int change, int revision) {
+        List<RelatedChange> cached = graph != null ? graph.chain(change, revision) : null;
+        if (cached != null)
+            return cached;
+
         List<RelatedChange> related = fetch(change, revision);
         if (related == null)
             return null;
+        if (graph != null)
+            graph.merge(related);
+
+        return toChain(related, change, revision);
+    }
+
+    /**
+     * Fetches the chains of many patch sets in parallel. The `related` response of a patch set contains
+     * the whole relation graph, so the chain of a patch set found in an already fetched graph is built
+     * from that one instead of requesting it again, waiting for it if it's still running. The patch sets known
+     * by the {@link RelatedChangeGraph} are not requested either.
+     *
+     * @param patchSets   The patch sets, typically from the same stacks
+     * @param concurrency The maximum number of requests sent at the same time
+     * @return the chains by patch set, in the order of the argument, see {@link #fetchAsChain(int, int)}
+     * @throws IOException if a request fails
+     */
+    public Map<PatchSet, List<RelatedChange>> fetchAsChains(Collection<PatchSet> patchSets, int concurrency) throws IOException, InterruptedException {
+        ConcurrentLinkedQueue<PatchSet> queue = new ConcurrentLinkedQueue<>(new LinkedHashSet<>(patchSets));
+        Map<PatchSet, CompletableFuture<List<RelatedChange>>> graphs = new ConcurrentHashMap<>();
+        Map<PatchSet, List<RelatedChange>> chains = new HashMap<>();
+
+        int threads = Math.max(1, Math.min(concurrency, queue.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                workers.add(executor.submit(() -> {
+                    PatchSet patchSet;
+                    while ((patchSet = queue.poll()) != null) {
+                        List<RelatedChange> chain = graph != null ? graph.chain(patchSet.changeNumber(), patchSet.revision()) : null;
+                        if (chain == null) {
+                            CompletableFuture<List<RelatedChange>> fetch = new CompletableFuture<>();
+                            CompletableFuture<List<RelatedChange>> running = graphs.putIfAbsent(patchSet, fetch);
+                            List<RelatedChange> related = running != null ? awaitRelated(running) : fetchRelated(patchSet, fetch, graphs);
+                            chain = toChain(related, patchSet.changeNumber(), patchSet.revision());
+                        }
+                        synchronized (chains) {
+                            chains.put(patchSet, chain);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<PatchSet, List<RelatedChange>> result = new LinkedHashMap<>();
+        patchSets.forEach(p -> result.put(p, chains.get(p)));
+        return result;
+    }
+
+    /**
+     * Fetches the graph of the patch set, completing the future registered for it, then registers the future
+     * for the other patch sets of the graph too.
+     */
+    private List<RelatedChange> fetchRelated(PatchSet patchSet, CompletableFuture<List<RelatedChange>> fetch,
+                                             Map<PatchSet, CompletableFuture<List<RelatedChange>>> graphs) throws IOException {
+        List<RelatedChange> related;
+        try {
+            related = fetchRelated(patchSet.changeNumber(), patchSet.revision());
+        } catch (IOException | RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        }
+        if (graph != null)
+            graph.merge(related);
+        fetch.complete(related);
+        for (RelatedChange c : related) {
+            graphs.putIfAbsent(new PatchSet(c.changeNumber(), c.revision()), fetch);
+        }
+        return related;
+    }
+
+    private static List<RelatedChange> awaitRelated(CompletableFuture<List<RelatedChange>> fetch) throws IOException, InterruptedException {
+        try {
+            return fetch.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public Map<PatchSet, List<RelatedChange>> fetchAsChains(Collection<PatchSet> patchSets) throws IOException, InterruptedException {
+        return fetchAsChains(patchSets, DEFAULT_CONCURRENCY);
+    }
 
+    /**
+     * Follows the parents of the patch set within the related changes.
+     */
+    static List<RelatedChange> toChain(List<RelatedChange> related, int change, int revision) {
         Map<String, String> commitToParent = new HashMap<>();
         Map<String, RelatedChange> commitToRelated = new HashMap<>();
         RelatedChange currentChange = null;
@@ -0,0 +1,199 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The relation DAG of the patch sets seen in `related` responses, maintained incrementally.
+ * <p>
+ * A commit never changes its parent, so the chain of a known patch set can always be answered from memory;
+ * only the status and the latest revision of the changes go stale, and those are kept per Change-Id
+ * and updated by {@link #update(RelatedChange)} and {@link #updateStatus(String, String)}.
+ * The chain and descendant queries are proportional to their result, not to the size of the graph.
+ * <p>
+ * The class is thread-safe.
+ */
+public class RelatedChangeGraph {
+    private static final class Node {
+        private final RelatedChange change;
+        private final List<Node> children = new ArrayList<>(1);
+        private Node parent;
+
+        private Node(RelatedChange change) {
+            this.change = change;
+        }
+    }
+
+    private static final class ChangeState {
+        private final List<Node> revisions = new ArrayList<>(1);
+        private int latestRevision;
+        private String status;
+    }
+
+    private final Map<String, Node> byCommit = new HashMap<>();
+    private final Map<PatchSet, Node> byPatchSet = new HashMap<>();
+    private final Map<String, ChangeState> byChangeId = new HashMap<>();
+    /**
+     * The nodes whose parent commit is not (yet) known, by the parent commit.
+     */
+    private final Map<String, List<Node>> orphans = new HashMap<>();
+
+    /**
+     * Adds the changes of a `related` response.
+     */
+    public synchronized void merge(Collection<RelatedChange> related) {
+        for (RelatedChange change : related)
+            add(change);
+    }
+
+    /**
+     * Applies the delta of a single change: a new revision is linked to its parent, and the latest revision
+     * and the status of the change are updated, e.g. when it's merged or abandoned.
+     */
+    public synchronized void update(RelatedChange change) {
+        add(change);
+    }
+
+    /**
+     * Updates the status of all the revisions of a change, e.g. to one of {@link RelatedChange#CLOSED_STATUSES}.
+     *
+     * @return false if the change is unknown
+     */
+    public synchronized boolean updateStatus(String changeId, String status) {
+        ChangeState state = byChangeId.get(changeId);
+        if (state == null)
+            return false;
+        state.status = status;
+        return true;
+    }
+
+    /**
+     * Forgets all the revisions of a change, e.g. a long ago merged one. The chains of its descendants end before it.
+     */
+    public synchronized void remove(String changeId) {
+        ChangeState state = byChangeId.remove(changeId);
+        if (state == null)
+            return;
+        for (Node node : state.revisions) {
+            byCommit.remove(node.change.commitId());
+            byPatchSet.remove(new PatchSet(node.change.changeNumber(), node.change.revision()));
+            if (node.parent != null)
+                node.parent.children.remove(node);
+            else
+                removeOrphan(node);
+            for (Node child : node.children) {
+                child.parent = null;
+                orphans.computeIfAbsent(node.change.commitId(), k -> new ArrayList<>(1)).add(child);
+            }
+        }
+    }
+
+    public synchronized boolean contains(int change, int revision) {
+        return byPatchSet.containsKey(new PatchSet(change, revision));
+    }
+
+    public synchronized int size() {
+        return byPatchSet.size();
+    }
+
+    /**
+     * Follows the parents of the patch set, like {@link RelatedChangeFetcher#fetchAsChain(int, int)}.
+     *
+     * @return the patch set and its ancestors, or null if the patch set is unknown
+     */
+    public synchronized List<RelatedChange> chain(int change, int revision) {
+        Node node = byPatchSet.get(new PatchSet(change, revision));
+        if (node == null)
+            return null;
+        List<RelatedChange> result = new ArrayList<>();
+        for (; node != null; node = node.parent)
+            result.add(current(node));
+        return result;
+    }
+
+    /**
+     * @return the patch sets built on the given one, directly or indirectly, in breadth-first order,
+     * or null if the patch set is unknown
+     */
+    public synchronized List<RelatedChange> descendants(int change, int revision) {
+        Node node = byPatchSet.get(new PatchSet(change, revision));
+        if (node == null)
+            return null;
+        List<RelatedChange> result = new ArrayList<>();
+        Deque<Node> queue = new ArrayDeque<>(node.children);
+        while (!queue.isEmpty()) {
+            Node descendant = queue.poll();
+            result.add(current(descendant));
+            queue.addAll(descendant.children);
+        }
+        return result;
+    }
+
+    private void add(RelatedChange change) {
+        ChangeState state = byChangeId.computeIfAbsent(change.changeId(), k -> new ChangeState());
+        if (change.latestRevision() >= state.latestRevision) {
+            state.latestRevision = change.latestRevision();
+            state.status = change.status();
+        }
+        if (byCommit.containsKey(change.commitId()))
+            return;
+
+        Node node = new Node(change);
+        byCommit.put(change.commitId(), node);
+        byPatchSet.put(new PatchSet(change.changeNumber(), change.revision()), node);
+        state.revisions.add(node);
+
+        node.parent = byCommit.get(change.parentCommitId());
+        if (node.parent != null)
+            node.parent.children.add(node);
+        else
+            orphans.computeIfAbsent(change.parentCommitId(), k -> new ArrayList<>(1)).add(node);
+
+        List<Node> children = orphans.remove(change.commitId());
+        if (children != null) {
+            for (Node child : children)
+                child.parent = node;
+            node.children.addAll(children);
+        }
+    }
+
+    private void removeOrphan(Node node) {
+        List<Node> siblings = orphans.get(node.change.parentCommitId());
+        if (siblings != null) {
+            siblings.remove(node);
+            if (siblings.isEmpty())
+                orphans.remove(node.change.parentCommitId());
+        }
+    }
+
+    private RelatedChange current(Node node) {
+        RelatedChange change = node.change;
+        ChangeState state = byChangeId.get(change.changeId());
+        if (state.latestRevision == change.latestRevision() && Objects.equals(state.status, change.status()))
+            return change;
+        return new RelatedChange(change.changeNumber(), change.revision(), change.changeId(), state.latestRevision,
+                change.commitId(), change.parentCommitId(), state.status);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the reviews of the same change and revision submitted within a time window, and sends them as one review.
+ * <p>
+ * The window starts at the first review of a change and revision. The messages are concatenated
+ * by {@link ReviewMessage#merge(ReviewMessage, boolean)} in the order of submission, so the labels
+ * are combined by the precedence of {@link ReviewMessage#addLabel(String, int)}.
+ * <p>
+ * A merged review is sent only once by a {@link ReviewSender}. To retry it and record it in a journal,
+ * place the coalescer in front of a {@link ReviewOutbox}, and close the coalescer before the outbox.
+ */
+public class ReviewCoalescer implements AutoCloseable {
+    private record Key(int changeId, int revision) {
+    }
+
+    private static class Pending {
+        final ReviewMessage message = new ReviewMessage(new EmptyMessagePrefix());
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        ScheduledFuture<?> flush;
+    }
+
+    private final ReviewSender sender;
+    private final ReviewOutbox outbox;
+    private final long windowNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Key, Pending> pending = new HashMap<>();
+    private boolean closed;
+
+    /**
+     * @param sender The sender of the merged reviews, e.g. a {@link Gerrit} instance
+     * @param window The time to wait for further reviews of the same change and revision
+     * @param senderThreads The number of merged reviews sent at the same time
+     */
+    public ReviewCoalescer(ReviewSender sender, Duration window, int senderThreads) {
+        this(sender, null, window, senderThreads);
+    }
+
+    public ReviewCoalescer(ReviewSender sender, Duration window) {
+        this(sender, window, 1);
+    }
+
+    /**
+     * Queues the merged reviews in the outbox, so they are sent with its retries and journal.
+     * The futures of the merged reviews complete when the outbox sent them.
+     */
+    public ReviewCoalescer(ReviewOutbox outbox, Duration window) {
+        this(null, outbox, window, 1);
+    }
+
+    private ReviewCoalescer(ReviewSender sender, ReviewOutbox outbox, Duration window, int senderThreads) {
+        this.sender = sender;
+        this.outbox = outbox;
+        this.windowNanos = window.toNanos();
+        this.scheduler = Executors.newScheduledThreadPool(senderThreads);
+    }
+
+    public CompletableFuture<Void> submit(int changeId, int revision, ReviewMessage reviewMessage) {
+        return submit(changeId, revision, reviewMessage, false);
+    }
+
+    /**
+     * Queues a review to be merged with the others of the same change and revision.
+     *
+     * @param withoutLabels Drop the labels of this message only
+     * @return a future completed when the merged review is sent, or exceptionally if it failed.
+     */
+    public synchronized CompletableFuture<Void> submit(int changeId, int revision, ReviewMessage reviewMessage, boolean withoutLabels) {
+        if (closed)
+            throw new RejectedExecutionException("Review coalescer is closed");
+
+        Key key = new Key(changeId, revision);
+        Pending review = pending.get(key);
+        if (review == null) {
+            review = new Pending();
+            pending.put(key, review);
+            review.flush = scheduler.schedule(() -> flush(key), windowNanos, TimeUnit.NANOSECONDS);
+        }
+        review.message.merge(reviewMessage, withoutLabels);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        review.futures.add(future);
+        return future;
+    }
+
+    private void flush(Key key) {
+        Pending review;
+        synchronized (this) {
+            review = pending.remove(key);
+        }
+        if (review == null)
+            return;
+
+        try {
+            send(key, review.message).whenComplete((result, e) -> review.futures.forEach(f -> {
+                if (e == null)
+                    f.complete(null);
+                else
+                    f.completeExceptionally(e);
+            }));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            review.futures.forEach(f -> f.completeExceptionally(new CompletionException(e)));
+        }
+    }
+
+    private CompletableFuture<Void> send(Key key, ReviewMessage message) throws IOException, InterruptedException {
+        if (outbox != null)
+            return outbox.submit(key.changeId(), key.revision(), message);
+        sender.sendReview(key.changeId(), key.revision(), message, false);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Sends the pending reviews without waiting for the end of their windows, and waits for them.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            for (Map.Entry<Key, Pending> entry : pending.entrySet()) {
+                if (entry.getValue().flush.cancel(false))
+                    scheduler.execute(() -> flush(entry.getKey()));
+            }
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
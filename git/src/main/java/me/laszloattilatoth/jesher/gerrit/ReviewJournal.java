@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.util.Convert;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of the queued reviews of {@link ReviewOutbox}, one JSON object per line.
+ * <p>
+ * A review is recorded as `{"id":1,"change":2,"revision":3,"message":"...","labels":{...}}` when it's queued
+ * and as `{"done":1}` when it's sent or finally failed. Each record is forced to the disk before returning.
+ * On opening, the still pending reviews are kept and the journal is compacted; a partially written last
+ * line (from a crash) is ignored.
+ */
+class ReviewJournal implements AutoCloseable {
+    record Entry(long id, int change, int revision, String message, Map<String, Integer> labels) {
+        ReviewMessage toReviewMessage() {
+            ReviewMessage result = new ReviewMessage(new EmptyMessagePrefix());
+            result.add(message);
+            labels.forEach(result::addLabel);
+            return result;
+        }
+
+        Map<String, Object> toRecord() {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("id", id);
+            record.put("change", change);
+            record.put("revision", revision);
+            record.put("message", message);
+            record.put("labels", labels);
+            return record;
+        }
+    }
+
+    private final FileChannel channel;
+    private final List<Entry> pending;
+    private long nextId;
+
+    ReviewJournal(Path path) throws IOException {
+        Map<Long, Entry> entries = load(path);
+        pending = List.copyOf(entries.values());
+        nextId = entries.keySet().stream().mapToLong(Long::longValue).max().orElse(0) + 1;
+        compact(path);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return the reviews which were not done when the journal was closed last time, in their original order.
+     */
+    List<Entry> pending() {
+        return pending;
+    }
+
+    synchronized Entry add(int change, int revision, ReviewMessage message, boolean withoutLabels) throws IOException {
+        Map<String, Integer> labels = withoutLabels ? Map.of() : message.getLabels();
+        Entry entry = new Entry(nextId++, change, revision, message.get(), labels);
+        append(entry.toRecord());
+        return entry;
+    }
+
+    synchronized void done(Entry entry) throws IOException {
+        append(Map.of("done", entry.id()));
+    }
+
+    private void append(Map<String, Object> record) throws IOException {
+        write(channel, record);
+        channel.force(false);
+    }
+
+    private static void write(FileChannel channel, Map<String, Object> record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((Convert.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static Map<Long, Entry> load(Path path) throws IOException {
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        if (!Files.exists(path))
+            return entries;
+
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            Map<?, ?> record;
+            try {
+                record = Convert.fromJsonToMap(line);
+            } catch (IOException e) {
+                continue;
+            }
+            if (record.containsKey("done")) {
+                entries.remove(((Number) record.get("done")).longValue());
+            } else {
+                long id = ((Number) record.get("id")).longValue();
+                Map<String, Integer> labels = new HashMap<>();
+                if (record.get("labels") instanceof Map<?, ?> recordLabels)
+                    recordLabels.forEach((k, v) -> labels.put((String) k, ((Number) v).intValue()));
+                entries.put(id, new Entry(id, ((Number) record.get("change")).intValue(), ((Number) record.get("revision")).intValue(),
+                        (String) record.get("message"), labels));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Rewrites the journal with the pending reviews only, atomically replacing the old one.
+     */
+    private void compact(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry entry : pending) {
+                write(out, entry.toRecord());
+            }
+            out.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
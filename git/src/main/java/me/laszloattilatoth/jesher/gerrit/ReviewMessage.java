@@ -49,6 +49,19 @@ public class ReviewMessage extends Message {
         return this;
     }
 
+    /**
+     * Appends the blocks of the other message, and combines the labels by the same precedence as {@link #addLabel(String, int)}.
+     *
+     * @param withoutLabels Append only the text of the other message
+     */
+    public ReviewMessage merge(ReviewMessage other, boolean withoutLabels) {
+        if (!other.get().isEmpty())
+            addBlock(other.get());
+        if (!withoutLabels)
+            other.getLabels().forEach(this::addLabel);
+        return this;
+    }
+
     private boolean shouldUpdateLabel(int previousValue, int newValue) {
         // priority: 0 < 1 < -1 < +2 < -2
         return comparableLabelValue(previousValue) < comparableLabelValue(newValue);
@@ -0,0 +1,290 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends reviews asynchronously via a {@link ReviewSender}, typically {@link Gerrit}.
+ * <p>
+ * The queued reviews are sent by a fixed number of worker threads, not faster than the configured rate.
+ * A failed review is retried with exponential backoff. If a journal is configured, the queued reviews
+ * are recorded in it, and the ones not sent before a crash or {@link #close()} are queued again
+ * when the next outbox is built with the same journal.
+ */
+public class ReviewOutbox implements AutoCloseable {
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMinutes(1);
+
+    private final ReviewSender sender;
+    private final long minIntervalNanos;
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final ReviewJournal journal;
+    private final GerritMetrics metrics;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retryScheduler;
+    private long nextSendNanos = System.nanoTime();
+    private int inFlight;
+    private boolean closed;
+
+    private ReviewOutbox(ReviewSender sender, int concurrency, double maxReviewsPerSecond, int maxAttempts,
+                         Duration initialBackoff, Duration maxBackoff, Path journalPath, MetricsRegistry metrics) throws IOException {
+        this.sender = sender;
+        this.minIntervalNanos = maxReviewsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxReviewsPerSecond) : 0;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.journal = journalPath == null ? null : new ReviewJournal(journalPath);
+        this.metrics = GerritMetrics.of(metrics);
+        this.workers = Executors.newFixedThreadPool(concurrency);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor();
+
+        if (journal != null) {
+            journal.pending().forEach(entry -> {
+                reserve();
+                enqueue(new Review(entry.change(), entry.revision(), entry.toReviewMessage(), false, entry));
+            });
+        }
+    }
+
+    /**
+     * @return the number of reviews queued again from the journal.
+     */
+    public int recovered() {
+        return journal == null ? 0 : journal.pending().size();
+    }
+
+    public CompletableFuture<Void> submit(int changeId, int revision, ReviewMessage reviewMessage) throws IOException {
+        return submit(changeId, revision, reviewMessage, false);
+    }
+
+    /**
+     * Queues a review. The returned future completes when the review is sent, or exceptionally
+     * with the last error if all attempts failed.
+     *
+     * @throws IOException if the review cannot be recorded in the journal.
+     */
+    public CompletableFuture<Void> submit(int changeId, int revision, ReviewMessage reviewMessage, boolean withoutLabels) throws IOException {
+        reserve();
+        ReviewJournal.Entry entry;
+        try {
+            entry = journal == null ? null : journal.add(changeId, revision, reviewMessage, withoutLabels);
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+        return enqueue(new Review(changeId, revision, reviewMessage, withoutLabels, entry));
+    }
+
+    /**
+     * Counts a review as in flight before it's recorded, so {@link #close()} waits for it.
+     */
+    private synchronized void reserve() {
+        if (closed)
+            throw new RejectedExecutionException("Review outbox is closed");
+        ++inFlight;
+    }
+
+    private synchronized void release() {
+        if (--inFlight == 0)
+            notifyAll();
+    }
+
+    /**
+     * @param journalEntry The record of the review in the journal, or null without journal
+     */
+    private record Review(int changeId, int revision, ReviewMessage reviewMessage, boolean withoutLabels,
+                          ReviewJournal.Entry journalEntry, CompletableFuture<Void> future) {
+        Review(int changeId, int revision, ReviewMessage reviewMessage, boolean withoutLabels, ReviewJournal.Entry journalEntry) {
+            this(changeId, revision, reviewMessage, withoutLabels, journalEntry, new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * Queues a review reserved by {@link #reserve()}.
+     */
+    private CompletableFuture<Void> enqueue(Review review) {
+        long queued = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                metrics.outboxQueueWait(System.nanoTime() - queued);
+                attempt(review, 1);
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            throw e;
+        }
+        return review.future();
+    }
+
+    private void attempt(Review review, int attempt) {
+        try {
+            awaitRate();
+            sender.sendReview(review.changeId(), review.revision(), review.reviewMessage(), review.withoutLabels());
+            finish(review, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finish(review, e);
+        } catch (IOException | RuntimeException e) {
+            if (attempt >= maxAttempts) {
+                finish(review, e);
+            } else {
+                retryScheduler.schedule(() -> workers.execute(() -> attempt(review, attempt + 1)),
+                        backoffNanos(attempt), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return the delay before the next attempt: the initial backoff doubled after each failed attempt, up to the maximum.
+     */
+    long backoffNanos(int failedAttempts) {
+        long delay = initialBackoffNanos << Math.min(failedAttempts - 1, 32);
+        return delay < 0 || delay > maxBackoffNanos ? maxBackoffNanos : delay;
+    }
+
+    /**
+     * Reserves the next send slot of the rate limit, and waits until it comes.
+     */
+    private void awaitRate() throws InterruptedException {
+        if (minIntervalNanos == 0)
+            return;
+        long slot;
+        synchronized (this) {
+            slot = Math.max(nextSendNanos, System.nanoTime());
+            nextSendNanos = slot + minIntervalNanos;
+        }
+        long wait = slot - System.nanoTime();
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    private void finish(Review review, Exception error) {
+        try {
+            if (review.journalEntry() != null && !(error instanceof InterruptedException))
+                journal.done(review.journalEntry());
+        } catch (IOException e) {
+            if (error == null)
+                error = e;
+        }
+        if (error == null)
+            review.future().complete(null);
+        else
+            review.future().completeExceptionally(new CompletionException(error));
+        release();
+    }
+
+    /**
+     * Stops accepting reviews and waits until the queued ones are sent or finally failed.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+        synchronized (this) {
+            closed = true;
+            while (inFlight > 0)
+                wait();
+        }
+        retryScheduler.shutdown();
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        if (journal != null)
+            journal.close();
+    }
+
+    public static class Builder {
+        private final ReviewSender sender;
+
+        private int concurrency = DEFAULT_CONCURRENCY;
+        private double maxReviewsPerSecond = 0;
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+        private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+        private Path journal;
+        private MetricsRegistry metrics;
+
+        public Builder(ReviewSender sender) {
+            this.sender = sender;
+        }
+
+        /**
+         * Opens the journal (if any) and queues its pending reviews again.
+         */
+        public ReviewOutbox build() throws IOException {
+            return new ReviewOutbox(sender, concurrency, maxReviewsPerSecond, maxAttempts, initialBackoff, maxBackoff, journal, metrics);
+        }
+
+        /**
+         * The number of reviews sent at the same time. See also {@link Gerrit.Builder#maxSshChannels(int)}.
+         */
+        public Builder concurrency(int concurrency) {
+            if (concurrency < 1)
+                throw new IllegalArgumentException("concurrency must be positive");
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Rate limit of the starts of the attempts, 0 for unlimited (the default).
+         */
+        public Builder maxReviewsPerSecond(double maxReviewsPerSecond) {
+            this.maxReviewsPerSecond = maxReviewsPerSecond;
+            return this;
+        }
+
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1)
+                throw new IllegalArgumentException("maxAttempts must be positive");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder backoff(Duration initialBackoff, Duration maxBackoff) {
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder journal(Path journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * Records the time the reviews wait for a worker, see {@link GerritMetrics}. Disabled by default.
+         */
+        public Builder metrics(MetricsRegistry metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+    }
+}
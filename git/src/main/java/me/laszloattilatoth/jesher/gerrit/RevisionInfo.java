@@ -0,0 +1,26 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+/**
+ * A revision of a change, from the `revisions` of {@link ChangeInfo}.
+ *
+ * @param commitId The commit ID, the key of the revision in the response
+ * @param number   The revision (patch set) number
+ */
+public record RevisionInfo(String commitId, int number, String ref, String kind, String created) {
+}
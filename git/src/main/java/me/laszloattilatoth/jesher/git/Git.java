@@ -24,7 +24,9 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collector;
 import java.util.stream.Stream;
 
@@ -108,4 +110,28 @@ public class Git {
                 .lines()
                 .toList();
     }
+
+    /**
+     * Looks up the objects by a single `git cat-file --batch-check` call.
+     *
+     * @param directory   The repository
+     * @param objectNames Object names, e.g. `commit:path/to/file`
+     * @return the found objects by their names, missing objects are not included.
+     */
+    public static Map<String, ObjectInfo> getObjectInfos(File directory, List<String> objectNames) throws IOException {
+        Map<String, ObjectInfo> result = new HashMap<>();
+        if (objectNames.isEmpty())
+            return result;
+
+        List<String> lines = ProcessHelper.getOutputReaderWithInput(directory, objectNames, "git", "cat-file", "--batch-check")
+                .lines()
+                .toList();
+        for (int i = 0; i != Math.min(lines.size(), objectNames.size()); ++i) {
+            String[] parts = lines.get(i).split(" ");
+            if (parts.length == 3 && !parts[2].equals("missing")) {
+                result.put(objectNames.get(i), new ObjectInfo(parts[0], parts[1], Long.parseLong(parts[2])));
+            }
+        }
+        return result;
+    }
 }
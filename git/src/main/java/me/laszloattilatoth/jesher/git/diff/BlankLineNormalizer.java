@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.util.stream.Stream;
+
+/**
+ * Drops the added and removed lines which are empty or contain only whitespace.
+ */
+class BlankLineNormalizer implements LineNormalizer {
+    @Override
+    public Stream<String> normalize(String filename, Stream<String> lines) {
+        return lines.filter(x -> !isBlankChange(x));
+    }
+
+    static boolean isBlankChange(String line) {
+        return !line.isEmpty() && (line.charAt(0) == '+' || line.charAt(0) == '-') && line.substring(1).isBlank()
+                && !line.startsWith("+++") && !line.startsWith("---");
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * One side of a {@link Differ} comparison: a set of changed files and their diffs.
+ *
+ * @see GitCommitChangeSource
+ * @see WorkingTreeChangeSource
+ * @see PatchDirectoryChangeSource
+ */
+public interface ChangeSource {
+    /**
+     * @return the identifier reported in {@link DiffResult}, e.g. the commit ID.
+     */
+    String id();
+
+    /**
+     * @return the names of the changed files, after renames.
+     */
+    Collection<String> changedFiles() throws IOException;
+
+    /**
+     * @return whether the change of the file is binary. Valid after {@link #changedFiles()}.
+     */
+    boolean isBinary(String filename);
+
+    /**
+     * Used only for binary and large file detection, so it may be expensive.
+     *
+     * @return the details of the files by their names; deleted files may be missing.
+     */
+    Map<String, FileInfo> fileInfos(Collection<String> filenames) throws IOException;
+
+    /**
+     * @return the lines of the diff of a single file in unified format, as printed by `git show`.
+     */
+    Stream<String> diffLines(String filename) throws IOException;
+}
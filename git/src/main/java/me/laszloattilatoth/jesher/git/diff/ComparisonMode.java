@@ -0,0 +1,48 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+/**
+ * Differences which are ignored by {@link Differ} in addition to the indentation changes of Java files.
+ * The normalizers of the modes are applied in declaration order.
+ *
+ * @see DiffOptions.Builder#comparisonModes(ComparisonMode...)
+ */
+public enum ComparisonMode {
+    /**
+     * Ignore the order of the imports within a hunk of a Java file.
+     */
+    SORT_JAVA_IMPORTS(new JavaImportNormalizer()),
+    /**
+     * Ignore every whitespace within the lines.
+     */
+    IGNORE_ALL_WHITESPACE(new WhitespaceNormalizer()),
+    /**
+     * Ignore added or removed lines containing only whitespace.
+     */
+    IGNORE_BLANK_LINES(new BlankLineNormalizer());
+
+    private final LineNormalizer normalizer;
+
+    ComparisonMode(LineNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    public LineNormalizer normalizer() {
+        return normalizer;
+    }
+}
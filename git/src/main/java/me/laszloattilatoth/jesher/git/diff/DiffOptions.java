@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tuning options of {@link Differ}.
+ */
+public class DiffOptions {
+    public static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+    public static final int DEFAULT_PREFETCH_QUEUE_SIZE = 16;
+
+    private final long maxFileSize;
+    private final boolean detectBinary;
+    private final boolean pipelined;
+    private final int prefetchQueueSize;
+    private final int diffThreads;
+    private final boolean fingerprintLines;
+    private final Set<ComparisonMode> comparisonModes;
+    private final List<LineNormalizer> normalizers;
+
+    private DiffOptions(long maxFileSize, boolean detectBinary, boolean pipelined, int prefetchQueueSize, int diffThreads,
+                        boolean fingerprintLines, Set<ComparisonMode> comparisonModes, List<LineNormalizer> normalizers) {
+        this.maxFileSize = maxFileSize;
+        this.detectBinary = detectBinary;
+        this.pipelined = pipelined;
+        this.prefetchQueueSize = prefetchQueueSize;
+        this.diffThreads = diffThreads;
+        this.fingerprintLines = fingerprintLines;
+        this.comparisonModes = comparisonModes;
+        this.normalizers = normalizers;
+    }
+
+    public static DiffOptions defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * Files larger than this (in either version, in either commit) are compared by their blob IDs only.
+     */
+    public long maxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Whether files detected as binary by git are compared by their blob IDs only.
+     */
+    public boolean detectBinary() {
+        return detectBinary;
+    }
+
+    /**
+     * Whether the file diffs are loaded by a producer thread ahead of the threads comparing them.
+     */
+    public boolean pipelined() {
+        return pipelined;
+    }
+
+    /**
+     * The number of loaded file pairs waiting for comparison in pipelined mode.
+     */
+    public int prefetchQueueSize() {
+        return prefetchQueueSize;
+    }
+
+    /**
+     * The number of threads comparing the loaded file pairs in pipelined mode.
+     */
+    public int diffThreads() {
+        return diffThreads;
+    }
+
+    /**
+     * Whether the lines are compared by their 64-bit fingerprints and bytes computed by {@link LineKernel#best()}
+     * instead of {@link String#equals(Object)}.
+     */
+    public boolean fingerprintLines() {
+        return fingerprintLines;
+    }
+
+    public Set<ComparisonMode> comparisonModes() {
+        return comparisonModes;
+    }
+
+    /**
+     * The normalizers applied to the lines in order: the indentation of Java files,
+     * the normalizers of {@link #comparisonModes()} and the ones added by {@link Builder#addNormalizer(LineNormalizer)}.
+     */
+    public List<LineNormalizer> normalizers() {
+        return normalizers;
+    }
+
+    boolean needsObjectInfo() {
+        return detectBinary || maxFileSize != Long.MAX_VALUE;
+    }
+
+    public static class Builder {
+        private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+        private boolean detectBinary = true;
+        private boolean pipelined = false;
+        private int prefetchQueueSize = DEFAULT_PREFETCH_QUEUE_SIZE;
+        private int diffThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        private boolean fingerprintLines = false;
+        private final Set<ComparisonMode> comparisonModes = EnumSet.noneOf(ComparisonMode.class);
+        private final List<LineNormalizer> additionalNormalizers = new ArrayList<>();
+
+        public DiffOptions build() {
+            if (prefetchQueueSize < 1 || diffThreads < 1)
+                throw new IllegalArgumentException("Prefetch queue size and diff thread count must be positive");
+            List<LineNormalizer> normalizers = new ArrayList<>();
+            normalizers.add(new LeadingWhitespaceNormalizer());
+            comparisonModes.forEach(mode -> normalizers.add(mode.normalizer()));
+            normalizers.addAll(additionalNormalizers);
+            return new DiffOptions(maxFileSize, detectBinary, pipelined, prefetchQueueSize, diffThreads, fingerprintLines,
+                    Set.copyOf(comparisonModes), List.copyOf(normalizers));
+        }
+
+        /**
+         * @param maxFileSize the size limit in bytes, or {@link Long#MAX_VALUE} to diff all files as text.
+         */
+        public Builder maxFileSize(long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        public Builder detectBinary(boolean detectBinary) {
+            this.detectBinary = detectBinary;
+            return this;
+        }
+
+        public Builder pipelined(boolean pipelined) {
+            this.pipelined = pipelined;
+            return this;
+        }
+
+        public Builder prefetchQueueSize(int prefetchQueueSize) {
+            this.prefetchQueueSize = prefetchQueueSize;
+            return this;
+        }
+
+        public Builder diffThreads(int diffThreads) {
+            this.diffThreads = diffThreads;
+            return this;
+        }
+
+        public Builder fingerprintLines(boolean fingerprintLines) {
+            this.fingerprintLines = fingerprintLines;
+            return this;
+        }
+
+        public Builder comparisonModes(ComparisonMode... modes) {
+            comparisonModes.addAll(Arrays.asList(modes));
+            return this;
+        }
+
+        public Builder addNormalizer(LineNormalizer normalizer) {
+            additionalNormalizers.add(normalizer);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads the items on the calling thread into a bounded queue, while the consumer threads check them,
+ * so the git I/O and the diff computation overlap.
+ *
+ * @param <T> The loaded item
+ */
+class DiffPipeline<T> {
+    private final int queueSize;
+    private final int consumers;
+
+    private final LongAdder producerBusy = new LongAdder();
+    private final LongAdder producerBlocked = new LongAdder();
+    private final LongAdder consumerBusy = new LongAdder();
+    private final LongAdder consumerIdle = new LongAdder();
+
+    DiffPipeline(int queueSize, int consumers) {
+        this.queueSize = queueSize;
+        this.consumers = consumers;
+    }
+
+    /**
+     * @return whether the check of the item at each index returned true.
+     */
+    boolean[] run(int count, Loader<T> loader, Checker<T> checker) throws IOException {
+        BlockingQueue<Item<T>> queue = new ArrayBlockingQueue<>(queueSize);
+        boolean[] results = new boolean[count];
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ExecutorService executor = Executors.newFixedThreadPool(consumers);
+
+        try {
+            for (int i = 0; i != consumers; ++i) {
+                executor.execute(() -> consume(queue, checker, results, failure));
+            }
+            try {
+                for (int i = 0; i != count && failure.get() == null; ++i) {
+                    long start = System.nanoTime();
+                    T item = loader.load(i);
+                    long loaded = System.nanoTime();
+                    queue.put(new Item<>(i, item));
+                    producerBusy.add(loaded - start);
+                    producerBlocked.add(System.nanoTime() - loaded);
+                }
+            } finally {
+                for (int i = 0; i != consumers; ++i) {
+                    queue.put(Item.end());
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while comparing files");
+        } finally {
+            awaitConsumers(executor);
+        }
+
+        if (failure.get() != null)
+            throw failure.get();
+        return results;
+    }
+
+    /**
+     * Waits for the consumers even if the loader failed, so no idle thread keeps the JVM alive.
+     */
+    private static void awaitConsumers(ExecutorService executor) throws InterruptedIOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while comparing files");
+        }
+    }
+
+    private void consume(BlockingQueue<Item<T>> queue, Checker<T> checker, boolean[] results, AtomicReference<RuntimeException> failure) {
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                Item<T> item = queue.take();
+                long taken = System.nanoTime();
+                consumerIdle.add(taken - start);
+                if (item.index() < 0)
+                    return;
+                // after a failure the queue is only drained to let the producer finish
+                if (failure.get() != null)
+                    continue;
+
+                try {
+                    results[item.index()] = checker.check(item.value());
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+                consumerBusy.add(System.nanoTime() - taken);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    PipelineStats stats(int items) {
+        return new PipelineStats(items, consumers,
+                producerBusy.sum(), producerBlocked.sum(),
+                consumerBusy.sum(), consumerIdle.sum());
+    }
+
+    @FunctionalInterface
+    interface Loader<T> {
+        T load(int index) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Checker<T> {
+        boolean check(T item);
+    }
+
+    private record Item<T>(int index, T value) {
+        static <T> Item<T> end() {
+            return new Item<>(-1, null);
+        }
+    }
+}
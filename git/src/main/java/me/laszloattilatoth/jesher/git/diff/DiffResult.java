@@ -21,9 +21,25 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * The result of {@link Differ#run()}.
+ * <p>
+ * The binary and large files compared only by their blob IDs are listed in {@link #binary()},
+ * and also in either {@link #same()} or {@link #different()}.
+ */
 public record DiffResult(String localCommitId, String upstreamCommitId,
                          List<String> same, List<String> different,
-                         List<String> localOnly, List<String> upstreamOnly) {
+                         List<String> localOnly, List<String> upstreamOnly,
+                         List<String> binary) {
+    /**
+     * Creates a result without binary or large files.
+     */
+    public DiffResult(String localCommitId, String upstreamCommitId,
+                      List<String> same, List<String> different,
+                      List<String> localOnly, List<String> upstreamOnly) {
+        this(localCommitId, upstreamCommitId, same, different, localOnly, upstreamOnly, List.of());
+    }
+
     public Map<String, List<String>> toMap() {
         return toMap(new DiffResultKeyProvider() {
         });
@@ -35,6 +51,7 @@ public record DiffResult(String localCommitId, String upstreamCommitId,
         result.put(keyProvider.different(), new ArrayList<>(different));
         result.put(keyProvider.localOnly(), new ArrayList<>(localOnly));
         result.put(keyProvider.upstreamOnly(), new ArrayList<>(upstreamOnly));
+        result.put(keyProvider.binary(), new ArrayList<>(binary));
         return result;
     }
 
@@ -27,4 +27,6 @@ public interface DiffResultKeyProvider {
     default String same() {return "same";}
 
     default String different() {return "different";}
+
+    default String binary() {return "binary";}
 }
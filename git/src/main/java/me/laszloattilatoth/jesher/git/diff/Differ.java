@@ -19,20 +19,25 @@ package me.laszloattilatoth.jesher.git.diff;
 import com.github.difflib.DiffUtils;
 import com.github.difflib.patch.AbstractDelta;
 import com.github.difflib.patch.Patch;
-import me.laszloattilatoth.jesher.util.ProcessHelper;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Differ {
-    private final File repository;
-    private final String localCommitId;
-    private final String upstreamCommitId;
+    private static final Pattern CHANGE_LINE = Pattern.compile("^[+-]([^+-].*)?$");
+
+    private final ChangeSource local;
+    private final ChangeSource upstream;
     private final FilenameMapper filenameMapper;
+    private final DiffOptions options;
+    private final LineKernel lineKernel = LineKernel.best();
 
     private final ArrayList<String> localFiles = new ArrayList<>();
     private final ArrayList<String> upstreamFiles = new ArrayList<>();
@@ -41,12 +46,28 @@ public class Differ {
     private final ArrayList<String> resultDifferentFiles = new ArrayList<>();
     private final ArrayList<String> resultLocalOnly = new ArrayList<>();
     private final ArrayList<String> resultUpstreamOnly = new ArrayList<>();
+    private final ArrayList<String> resultBinary = new ArrayList<>();
+    private PipelineStats pipelineStats;
 
-    public Differ(File repository, String localCommitId, String upstreamCommitId, FilenameMapper filenameMapper) throws IOException {
-        this.repository = repository;
-        this.localCommitId = localCommitId;
-        this.upstreamCommitId = upstreamCommitId;
+    /**
+     * @param local    The local (downstream) changes
+     * @param upstream The upstream changes, or null if there is no upstream counterpart
+     */
+    public Differ(ChangeSource local, ChangeSource upstream, FilenameMapper filenameMapper, DiffOptions options) {
+        this.local = local;
+        this.upstream = upstream;
         this.filenameMapper = filenameMapper;
+        this.options = options;
+    }
+
+    public Differ(File repository, String localCommitId, String upstreamCommitId, FilenameMapper filenameMapper, DiffOptions options) throws IOException {
+        this(new GitCommitChangeSource(repository, localCommitId),
+                upstreamCommitId == null ? null : new GitCommitChangeSource(repository, upstreamCommitId),
+                filenameMapper, options);
+    }
+
+    public Differ(File repository, String localCommitId, String upstreamCommitId, FilenameMapper filenameMapper) throws IOException {
+        this(repository, localCommitId, upstreamCommitId, filenameMapper, DiffOptions.defaults());
     }
 
     public Differ(File repository, String localCommitId, String upstreamCommitId) throws IOException {
@@ -58,24 +79,24 @@ public class Differ {
         loadFileLists();
         compareFiles();
 
-        return new DiffResult(localCommitId, upstreamCommitId, resultSameFiles, resultDifferentFiles, resultLocalOnly, resultUpstreamOnly);
+        return new DiffResult(local.id(), upstream == null ? null : upstream.id(), resultSameFiles, resultDifferentFiles, resultLocalOnly, resultUpstreamOnly, resultBinary);
     }
 
     private void loadFileLists() throws IOException {
-        if (upstreamCommitId != null) {
-            upstreamFiles.addAll(ProcessHelper.getOutputReader(repository, "git", "diff-tree", "--no-commit-id", "--name-only", "-r", "-M", upstreamCommitId).lines().toList());
+        if (upstream != null) {
+            upstreamFiles.addAll(upstream.changedFiles());
         }
-        localFiles.addAll(ProcessHelper.getOutputReader(repository, "git", "diff-tree", "--no-commit-id", "--name-only", "-r", "-M", localCommitId).lines().toList());
+        localFiles.addAll(local.changedFiles());
     }
 
     private void compareFiles() throws IOException {
         ArrayList<String> mayUpstreamOnly = new ArrayList<>(upstreamFiles);
+        List<String[]> filePairs = new ArrayList<>();
         for (var localFilename : localFiles) {
             boolean processed = false;
             for (var upstreamFilename : filenameMapper.map(localFilename)) {
                 if (mayUpstreamOnly.contains(upstreamFilename)) {
-                    // if (localFilename.equals("standalone-metastore/src/main/java/org/apache/hadoop/hive/metastore/MetastoreDefaultTransformer.java"))
-                    compareFile(localFilename, upstreamFilename);
+                    filePairs.add(new String[]{localFilename, upstreamFilename});
                     mayUpstreamOnly.remove(upstreamFilename);
                     processed = true;
                 }
@@ -84,6 +105,83 @@ public class Differ {
                 resultLocalOnly.add(localFilename);
         }
         resultUpstreamOnly.addAll(mayUpstreamOnly);
+
+        Map<String, FileInfo> localInfos = loadFileInfos(local, filePairs, 0);
+        Map<String, FileInfo> upstreamInfos = loadFileInfos(upstream, filePairs, 1);
+        List<String[]> textFilePairs = new ArrayList<>();
+        for (String[] pair : filePairs) {
+            FileInfo localInfo = localInfos.get(pair[0]);
+            FileInfo upstreamInfo = upstreamInfos.get(pair[1]);
+            if (isBinaryOrLarge(pair[0], pair[1], localInfo, upstreamInfo))
+                compareByObjectId(pair[0], localInfo, upstreamInfo);
+            else
+                textFilePairs.add(pair);
+        }
+
+        if (options.pipelined()) {
+            compareFilesPipelined(textFilePairs);
+        } else {
+            for (String[] pair : textFilePairs) {
+                compareFile(pair[0], pair[1]);
+            }
+        }
+    }
+
+    private void compareFilesPipelined(List<String[]> filePairs) throws IOException {
+        DiffPipeline<List<List<String>>> pipeline = new DiffPipeline<>(options.prefetchQueueSize(), options.diffThreads());
+        boolean[] same = pipeline.run(filePairs.size(),
+                i -> List.of(loadLines(local, filePairs.get(i)[0]), loadLines(upstream, filePairs.get(i)[1])),
+                lines -> isSameChange(lines.get(0), lines.get(1)));
+        for (int i = 0; i != filePairs.size(); ++i) {
+            addResult(filePairs.get(i)[0], same[i]);
+        }
+        pipelineStats = pipeline.stats(filePairs.size());
+    }
+
+    private void addResult(String localFilename, boolean same) {
+        if (same) {
+            resultSameFiles.add(localFilename);
+        } else {
+            resultDifferentFiles.add(localFilename);
+        }
+    }
+
+    /**
+     * @return the stage utilization of the last pipelined {@link #run()}, or null if it was not pipelined.
+     * @see DiffOptions#pipelined()
+     */
+    public PipelineStats pipelineStats() {
+        return pipelineStats;
+    }
+
+    /**
+     * Loads the file details of one side, typically by a single `git` call.
+     */
+    private Map<String, FileInfo> loadFileInfos(ChangeSource source, List<String[]> filePairs, int side) throws IOException {
+        if (!options.needsObjectInfo() || filePairs.isEmpty())
+            return Map.of();
+
+        return source.fileInfos(filePairs.stream().map(pair -> pair[side]).toList());
+    }
+
+    private boolean isBinaryOrLarge(String localFilename, String upstreamFilename, FileInfo localInfo, FileInfo upstreamInfo) {
+        if (options.detectBinary() && (local.isBinary(localFilename) || upstream.isBinary(upstreamFilename)))
+            return true;
+
+        return size(localInfo) > options.maxFileSize() || size(upstreamInfo) > options.maxFileSize();
+    }
+
+    private static long size(FileInfo info) {
+        return info == null ? 0 : info.size();
+    }
+
+    /**
+     * Compares binary and large files by the blob IDs of the resulting files, without reading the content.
+     * A file deleted on both sides is the same.
+     */
+    private void compareByObjectId(String localFilename, FileInfo localInfo, FileInfo upstreamInfo) {
+        resultBinary.add(localFilename);
+        addResult(localFilename, localInfo == null ? upstreamInfo == null || upstreamInfo.objectId() == null : localInfo.isSameObject(upstreamInfo));
     }
 
     /**
@@ -95,52 +193,102 @@ public class Differ {
      * The default implementation checks only the added/removed lines without context, assuming that
      * the commits are good, and it is used only to help the manual review (to see which files
      * are to be reviewed and which are not needed to be reviewed, etc.). A stricter comparison
-     * can be implemented via inheritance.
+     * can be implemented via inheritance, see {@link #isSameChange(List, List)}.
+     * <p>
+     * The pipelined mode loads and compares the files in separate steps, so the extension points of both
+     * modes are {@link #loadLines(ChangeSource, String)} and {@link #isSameChange(List, List)}, not this method.
      *
-     * @param localFilename    The filename used in {@link #localCommitId}
-     * @param upstreamFilename The mapped filename used in {@link #localCommitId} (@see {@link FilenameMapper}).
+     * @param localFilename    The filename used in the local change source
+     * @param upstreamFilename The mapped filename used in the upstream change source (@see {@link FilenameMapper}).
      * @throws IOException Thrown if the file diff cannot be loaded or other issue occurs.
      */
-    protected void compareFile(String localFilename, String upstreamFilename) throws IOException {
-        Patch<String> diff = DiffUtils.diff(loadLines(localCommitId, localFilename), loadLines(upstreamCommitId, upstreamFilename));
-        List<String> localLines = new ArrayList<>();
-        List<String> upstreamLines = new ArrayList<>();
-        for (AbstractDelta<String> delta : diff.getDeltas()) {
+    private void compareFile(String localFilename, String upstreamFilename) throws IOException {
+        addResult(localFilename, isSameChange(loadLines(local, localFilename), loadLines(upstream, upstreamFilename)));
+    }
+
+    /**
+     * Compares the loaded diffs of a file. In pipelined mode it is called from multiple threads.
+     *
+     * @param localDiff    The diff loaded by {@link #loadLines(ChangeSource, String)} from the local change source
+     * @param upstreamDiff The diff loaded from the upstream change source
+     * @return whether the changes are the same.
+     */
+    protected boolean isSameChange(List<String> localDiff, List<String> upstreamDiff) {
+        if (options.fingerprintLines()) {
+            return isSameChange(HashedLine.of(localDiff, lineKernel), HashedLine.of(upstreamDiff, lineKernel), HashedLine::isChangeLine);
+        } else {
+            return isSameChange(localDiff, upstreamDiff, x -> CHANGE_LINE.matcher(x).matches());
+        }
+    }
+
+    /**
+     * The first diff finds the changed parts of the file diffs, the second one compares
+     * the added/removed lines of those parts, ignoring the context lines.
+     */
+    private static <T> boolean isSameChange(List<T> localDiff, List<T> upstreamDiff, Predicate<T> isChangeLine) {
+        Patch<T> diff = DiffUtils.diff(localDiff, upstreamDiff);
+        List<T> localLines = new ArrayList<>();
+        List<T> upstreamLines = new ArrayList<>();
+        for (AbstractDelta<T> delta : diff.getDeltas()) {
             delta.getSource().getLines().forEach(x -> {
-                if (x.matches("^[+-]([^+-].*)?$")) {
+                if (isChangeLine.test(x)) {
                     localLines.add(x);
                 }
             });
             delta.getTarget().getLines().forEach(x -> {
-                if (x.matches("^[+-]([^+-].*)?")) {
+                if (isChangeLine.test(x)) {
                     upstreamLines.add(x);
                 }
             });
         }
 
-        Patch<String> finalDiff = DiffUtils.diff(localLines, upstreamLines);
-        if (finalDiff.getDeltas().size() > 0) {
-            resultDifferentFiles.add(localFilename);
-        } else {
-            resultSameFiles.add(localFilename);
-        }
+        Patch<T> finalDiff = DiffUtils.diff(localLines, upstreamLines);
+        return finalDiff.getDeltas().isEmpty();
     }
 
     /**
-     * Loads the diff of a file from a commit and strips leading whitespaces if it's a Java file by `git show`.
+     * Loads the diff of a file from a change source (e.g. by `git show`), and normalizes it by
+     * {@link DiffOptions#normalizers()}. By default it strips leading whitespaces if it's a Java file.
      *
-     * @param commit   The commit passed to `git`.
-     * @param filename The filename passed to `git`.
-     * @return The loaded diff as a list of strings, including the commit message.
-     * @throws IOException Thrown if the `git` command fails.
+     * @param source   The local or the upstream change source.
+     * @param filename The filename in the change source.
+     * @return The loaded diff as a list of strings.
+     * @throws IOException Thrown if the diff cannot be loaded, e.g. the `git` command fails.
      */
+    protected List<String> loadLines(ChangeSource source, String filename) throws IOException {
+        // keeps calling the overrides of the old extension point
+        if (source instanceof GitCommitChangeSource)
+            return loadLines(source.id(), filename);
+        return normalize(filename, source.diffLines(filename));
+    }
+
+    /**
+     * Loads the diff of a file from a commit, like {@link #loadLines(ChangeSource, String)}. It's called
+     * for the commits of {@link GitCommitChangeSource}s, so the existing overrides still take effect.
+     *
+     * @param commit   The commit of the local or the upstream change source, or another one of the repository.
+     * @param filename The filename in the commit.
+     * @deprecated Override {@link #loadLines(ChangeSource, String)}, which is called for all change sources.
+     */
+    @Deprecated
     protected List<String> loadLines(String commit, String filename) throws IOException {
-        BufferedReader reader = ProcessHelper.getOutputReader(repository, "git", "show", "--no-decorate", "--pretty=format:", commit, "--", filename);
-        if (filename.endsWith(".java")) {
-            //remove indentation changes
-            return reader.lines().map((x) -> x.replaceFirst("^([+-])[ \t]+", "$1 ")).toList();
-        } else {
-            return reader.lines().collect(Collectors.toList());
+        return normalize(filename, commitSource(commit).diffLines(filename));
+    }
+
+    private ChangeSource commitSource(String commit) {
+        if (local instanceof GitCommitChangeSource && local.id().equals(commit))
+            return local;
+        if (upstream instanceof GitCommitChangeSource && upstream.id().equals(commit))
+            return upstream;
+        if (local instanceof GitChangeSource gitSource)
+            return new GitCommitChangeSource(gitSource.repository, commit);
+        throw new IllegalArgumentException("Not a commit of a git change source: " + commit);
+    }
+
+    private List<String> normalize(String filename, Stream<String> lines) {
+        for (LineNormalizer normalizer : options.normalizers()) {
+            lines = normalizer.normalize(filename, lines);
         }
+        return lines.collect(Collectors.toList());
     }
 }
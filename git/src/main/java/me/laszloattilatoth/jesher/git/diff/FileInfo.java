@@ -0,0 +1,36 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+/**
+ * The size and the resulting blob of a changed file, see {@link ChangeSource#fileInfos(java.util.Collection)}.
+ *
+ * @param objectId The blob ID after the change, possibly abbreviated, or null if the file is deleted
+ * @param size     The larger of the sizes before and after the change, or an estimate of it
+ */
+public record FileInfo(String objectId, long size) {
+    /**
+     * Compares the blob IDs, allowing abbreviated ones (e.g. from the `index` line of a patch).
+     */
+    public boolean isSameObject(FileInfo other) {
+        String id = objectId;
+        String otherId = other == null ? null : other.objectId;
+        if (id == null || otherId == null)
+            return id == null && otherId == null;
+        return id.length() <= otherId.length() ? otherId.startsWith(id) : id.startsWith(otherId);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import me.laszloattilatoth.jesher.util.ProcessHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Common parts of the change sources reading a git repository.
+ */
+abstract class GitChangeSource implements ChangeSource {
+    protected final File repository;
+    private final Set<String> binaryFiles = new HashSet<>();
+
+    protected GitChangeSource(File repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public boolean isBinary(String filename) {
+        return binaryFiles.contains(filename);
+    }
+
+    /**
+     * Runs a git command with `--numstat -z` output and returns the changed files, also recording
+     * the ones git considers binary (shown as `-`, detected by a NUL byte in the first block).
+     */
+    protected List<String> loadNumstat(String... args) throws IOException {
+        StringWriter output = new StringWriter();
+        ProcessHelper.getOutputReader(repository, args).transferTo(output);
+
+        // "added<TAB>deleted<TAB>path<NUL>" or in case of renames "added<TAB>deleted<TAB><NUL>old path<NUL>new path<NUL>"
+        List<String> files = new ArrayList<>();
+        String[] entries = output.toString().split("\0");
+        for (int i = 0; i < entries.length; ++i) {
+            String[] stat = entries[i].split("\t", 3);
+            if (stat.length != 3)
+                continue;
+            String filename = stat[2].isEmpty() && i + 2 < entries.length ? entries[i += 2] : stat[2];
+            files.add(filename);
+            if (stat[0].equals("-"))
+                binaryFiles.add(filename);
+        }
+        return files;
+    }
+
+    protected static String objectName(String commit, String filename) {
+        return commit + ":" + filename;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import me.laszloattilatoth.jesher.git.Git;
+import me.laszloattilatoth.jesher.git.ObjectInfo;
+import me.laszloattilatoth.jesher.util.ProcessHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The changes of a single commit.
+ */
+public class GitCommitChangeSource extends GitChangeSource {
+    private final String commit;
+
+    public GitCommitChangeSource(File repository, String commit) {
+        super(repository);
+        this.commit = commit;
+    }
+
+    @Override
+    public String id() {
+        return commit;
+    }
+
+    @Override
+    public Collection<String> changedFiles() throws IOException {
+        return loadNumstat("git", "diff-tree", "--no-commit-id", "--numstat", "-z", "-r", "-M", commit);
+    }
+
+    /**
+     * Loads the pre- and post-image blob of each file by one `git cat-file` call.
+     */
+    @Override
+    public Map<String, FileInfo> fileInfos(Collection<String> filenames) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String filename : filenames) {
+            names.add(objectName(commit, filename));
+            names.add(objectName(commit + "^", filename));
+        }
+
+        Map<String, ObjectInfo> objects = Git.getObjectInfos(repository, names);
+        Map<String, FileInfo> result = new HashMap<>();
+        for (String filename : filenames) {
+            ObjectInfo after = objects.get(objectName(commit, filename));
+            ObjectInfo before = objects.get(objectName(commit + "^", filename));
+            long size = Math.max(after == null ? 0 : after.size(), before == null ? 0 : before.size());
+            result.put(filename, new FileInfo(after == null ? null : after.objectId(), size));
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<String> diffLines(String filename) throws IOException {
+        return ProcessHelper.getOutputReader(repository, "git", "show", "--no-decorate", "--pretty=format:", commit, "--", filename).lines();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A line as a UTF-8 byte range, with its 64-bit fingerprint.
+ * Two lines are equal if the fingerprints and then the bytes are equal, so
+ * most comparisons of different lines cost a single long comparison.
+ */
+final class HashedLine {
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
+    private final long fingerprint;
+    private final LineKernel kernel;
+
+    private HashedLine(byte[] buffer, int offset, int length, LineKernel kernel) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.fingerprint = kernel.fingerprint(buffer, offset, length);
+        this.kernel = kernel;
+    }
+
+    /**
+     * Encodes and fingerprints the lines.
+     */
+    static List<HashedLine> of(List<String> lines, LineKernel kernel) {
+        List<HashedLine> result = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            result.add(new HashedLine(bytes, 0, bytes.length, kernel));
+        }
+        return result;
+    }
+
+    /**
+     * Byte-level equivalent of matching {@code ^[+-]([^+-].*)?$}: an added or removed line,
+     * but not a `+++` / `---` header. As with the regex, line terminators are not allowed.
+     */
+    boolean isChangeLine() {
+        if (length == 0 || (buffer[offset] != '+' && buffer[offset] != '-'))
+            return false;
+        if (length > 1 && (buffer[offset + 1] == '+' || buffer[offset + 1] == '-'))
+            return false;
+        for (int i = offset + 1; i != offset + length; ++i) {
+            if (isLineTerminatorAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isLineTerminatorAt(int i) {
+        byte b = buffer[i];
+        if (b == '\r')
+            return true;
+        int remaining = offset + length - i;
+        // U+0085, U+2028, U+2029
+        if (b == (byte) 0xC2 && remaining >= 2 && buffer[i + 1] == (byte) 0x85)
+            return true;
+        return b == (byte) 0xE2 && remaining >= 3 && buffer[i + 1] == (byte) 0x80
+                && (buffer[i + 2] == (byte) 0xA8 || buffer[i + 2] == (byte) 0xA9);
+    }
+
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof HashedLine other))
+            return false;
+        return fingerprint == other.fingerprint && length == other.length
+                && kernel.rangeEquals(buffer, offset, other.buffer, other.offset, length);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, offset, length, StandardCharsets.UTF_8);
+    }
+}
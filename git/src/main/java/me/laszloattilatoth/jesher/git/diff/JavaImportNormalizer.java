@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Canonicalizes the imports of each hunk of a Java file diff.
+ * <p>
+ * The import lines of a hunk are collected while the other lines are passed through.
+ * An import both removed and added within the hunk (i.e. moved) cancels out, the context
+ * imports are dropped, and the remaining removed and added imports are emitted in sorted
+ * order at the end of the hunk. Only the imports of the current hunk are held in memory.
+ */
+class JavaImportNormalizer implements LineNormalizer {
+    private static final Pattern IMPORT_LINE = Pattern.compile("^[+\\- ]\\s*import\\s.*");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Override
+    public Stream<String> normalize(String filename, Stream<String> lines) {
+        if (!LineNormalizer.isJavaFile(filename))
+            return lines;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new HunkIterator(lines.iterator()), Spliterator.ORDERED), false)
+                .onClose(lines::close);
+    }
+
+    static boolean isImportLine(String line) {
+        return IMPORT_LINE.matcher(line).matches();
+    }
+
+    private static boolean isHunkBoundary(String line) {
+        return line.startsWith("@@") || line.startsWith("diff ");
+    }
+
+    private static class HunkIterator implements Iterator<String> {
+        private final Iterator<String> source;
+        private final ArrayDeque<String> ready = new ArrayDeque<>();
+        // import statement -> number of additions minus number of removals
+        private final Map<String, Integer> imports = new TreeMap<>();
+
+        HunkIterator(Iterator<String> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (ready.isEmpty() && source.hasNext()) {
+                String line = source.next();
+                if (isImportLine(line)) {
+                    int delta = line.charAt(0) == '+' ? 1 : (line.charAt(0) == '-' ? -1 : 0);
+                    imports.merge(WHITESPACE.matcher(line.substring(1).strip()).replaceAll(" "), delta, Integer::sum);
+                } else {
+                    if (isHunkBoundary(line))
+                        flushImports();
+                    ready.add(line);
+                }
+            }
+            if (ready.isEmpty())
+                flushImports();
+            return !ready.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return ready.poll();
+        }
+
+        private void flushImports() {
+            imports.forEach((statement, count) -> {
+                for (int i = 0; i > count; --i)
+                    ready.add("-" + statement);
+            });
+            imports.forEach((statement, count) -> {
+                for (int i = 0; i < count; ++i)
+                    ready.add("+" + statement);
+            });
+            imports.clear();
+        }
+    }
+}
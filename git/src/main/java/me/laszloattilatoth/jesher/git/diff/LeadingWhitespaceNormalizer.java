@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Replaces the indentation of the added and removed lines of Java files by a single space.
+ */
+class LeadingWhitespaceNormalizer implements LineNormalizer {
+    private static final Pattern INDENTATION = Pattern.compile("^([+-])[ \t]+");
+
+    @Override
+    public Stream<String> normalize(String filename, Stream<String> lines) {
+        if (!LineNormalizer.isJavaFile(filename))
+            return lines;
+        return lines.map(x -> INDENTATION.matcher(x).replaceFirst("$1 "));
+    }
+}
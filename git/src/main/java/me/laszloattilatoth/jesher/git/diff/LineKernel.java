@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+/**
+ * Computes fingerprints of lines and compares lines stored as UTF-8 byte ranges.
+ * <p>
+ * All implementations must return the same fingerprint for the same bytes, so they are interchangeable.
+ */
+public interface LineKernel {
+    long fingerprint(byte[] buffer, int offset, int length);
+
+    boolean rangeEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    /**
+     * @return the vectorized kernel if the jdk.incubator.vector module is available, the scalar one otherwise.
+     */
+    static LineKernel best() {
+        return LineKernels.BEST;
+    }
+
+    static LineKernel scalar() {
+        return LineKernels.SCALAR;
+    }
+}
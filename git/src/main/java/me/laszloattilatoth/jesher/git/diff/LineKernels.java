@@ -0,0 +1,47 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+/**
+ * Selects the {@link LineKernel} once. The vectorized kernel is loaded by name, so that
+ * the Vector API classes are not touched if the module is not part of the boot layer
+ * (e.g. it is not added by `--add-modules jdk.incubator.vector`).
+ */
+final class LineKernels {
+    static final String VECTOR_MODULE = "jdk.incubator.vector";
+    static final LineKernel SCALAR = new ScalarLineKernel();
+    static final LineKernel BEST = loadBest();
+
+    private LineKernels() {}
+
+    static boolean isVectorModuleAvailable() {
+        return ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+    }
+
+    private static LineKernel loadBest() {
+        if (!isVectorModuleAvailable() || Boolean.getBoolean("jesher.diff.disableVectorKernel"))
+            return SCALAR;
+
+        try {
+            return (LineKernel) Class.forName(LineKernels.class.getPackageName() + ".VectorLineKernel")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.util.stream.Stream;
+
+/**
+ * Rewrites the lines of a file diff before comparison, so that insignificant differences disappear.
+ * <p>
+ * Normalizers work on the stream lazily and are chained by {@link Differ}, so they should
+ * not hold more lines than needed (at most a hunk).
+ */
+@FunctionalInterface
+public interface LineNormalizer {
+    /**
+     * @param filename The name of the file whose diff the lines are
+     * @param lines    The lines of the diff as printed by `git show`
+     * @return the normalized lines.
+     */
+    Stream<String> normalize(String filename, Stream<String> lines);
+
+    static boolean isJavaFile(String filename) {
+        return filename.endsWith(".java");
+    }
+}
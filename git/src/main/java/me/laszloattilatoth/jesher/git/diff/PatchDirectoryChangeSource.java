@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The changes of a directory of patch files (`*.patch`, `*.diff`, `*.mbox`), as created by
+ * `git format-patch` or `git diff`, without importing them into a repository.
+ * <p>
+ * The files are processed in the order of their names and are memory-mapped; only the
+ * file boundaries are located in advance, the diff of a file is decoded when it is requested.
+ * If more patches change the same file, its diff is the concatenation of their sections.
+ */
+public class PatchDirectoryChangeSource implements ChangeSource {
+    private static final byte[] DIFF_HEADER = "diff --git ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MBOX_FROM = "From ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SIGNATURE = "-- \n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INDEX = "index ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DELETED = "deleted file mode".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY_PATCH = "GIT binary patch".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HUNK = "@@".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY_FILES = "Binary files ".getBytes(StandardCharsets.US_ASCII);
+
+    private final File directory;
+    private Map<String, List<Section>> sections;
+
+    /**
+     * A part of a mapped patch file describing the change of a single file.
+     */
+    private record Section(ByteBuffer content, String objectId, boolean binary) {
+    }
+
+    public PatchDirectoryChangeSource(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String id() {
+        return directory.getPath();
+    }
+
+    @Override
+    public Collection<String> changedFiles() throws IOException {
+        return sections().keySet();
+    }
+
+    @Override
+    public boolean isBinary(String filename) {
+        List<Section> fileSections = sections == null ? null : sections.get(filename);
+        return fileSections != null && fileSections.stream().anyMatch(Section::binary);
+    }
+
+    /**
+     * Patches don't contain the file sizes, so the size of the diff is used as an estimate,
+     * and the object ID is the (abbreviated) post-image blob ID of the last `index` line.
+     */
+    @Override
+    public Map<String, FileInfo> fileInfos(Collection<String> filenames) throws IOException {
+        Map<String, FileInfo> result = new HashMap<>();
+        for (String filename : filenames) {
+            List<Section> fileSections = sections().get(filename);
+            if (fileSections == null)
+                continue;
+            long size = fileSections.stream().mapToLong(s -> s.content().remaining()).sum();
+            result.put(filename, new FileInfo(fileSections.get(fileSections.size() - 1).objectId(), size));
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<String> diffLines(String filename) throws IOException {
+        List<Section> fileSections = sections().get(filename);
+        if (fileSections == null)
+            return Stream.empty();
+        return fileSections.stream()
+                .flatMap(s -> StandardCharsets.UTF_8.decode(s.content().duplicate()).toString().lines());
+    }
+
+    private Map<String, List<Section>> sections() throws IOException {
+        if (sections == null) {
+            Map<String, List<Section>> result = new LinkedHashMap<>();
+            try (Stream<Path> files = Files.list(directory.toPath())) {
+                for (Path path : files.filter(PatchDirectoryChangeSource::isPatchFile).sorted().toList()) {
+                    parse(map(path), result);
+                }
+            }
+            sections = result;
+        }
+        return sections;
+    }
+
+    private static boolean isPatchFile(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path) && (name.endsWith(".patch") || name.endsWith(".diff") || name.endsWith(".mbox"));
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Patch file is too large: " + path);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Splits a patch file into sections at the `diff --git` lines. A section ends at the next one,
+     * at the signature separator of `git format-patch` or at the beginning of the next mbox message.
+     */
+    private static void parse(ByteBuffer buffer, Map<String, List<Section>> result) {
+        int limit = buffer.limit();
+        int start = -1;
+        String filename = null;
+        for (int line = 0; line < limit; line = nextLine(buffer, line)) {
+            boolean header = startsWith(buffer, line, DIFF_HEADER);
+            if (start >= 0 && (header || startsWith(buffer, line, SIGNATURE) || startsWith(buffer, line, MBOX_FROM))) {
+                addSection(buffer, start, line, filename, result);
+                start = -1;
+            }
+            if (header) {
+                start = line;
+                filename = headerFilename(buffer, line);
+            }
+        }
+        if (start >= 0)
+            addSection(buffer, start, limit, filename, result);
+    }
+
+    private static void addSection(ByteBuffer buffer, int start, int end, String filename, Map<String, List<Section>> result) {
+        if (filename == null)
+            return;
+        String objectId = null;
+        boolean binary = false;
+        boolean deleted = false;
+        for (int line = start; line < end; line = nextLine(buffer, line)) {
+            if (startsWith(buffer, line, INDEX) && objectId == null) {
+                objectId = postImageId(lineAt(buffer, line));
+            } else if (startsWith(buffer, line, DELETED)) {
+                deleted = true;
+            } else if (startsWith(buffer, line, BINARY_PATCH) || startsWith(buffer, line, BINARY_FILES)) {
+                binary = true;
+            } else if (startsWith(buffer, line, HUNK)) {
+                break;
+            }
+        }
+        result.computeIfAbsent(filename, k -> new ArrayList<>())
+                .add(new Section(buffer.slice(start, end - start), deleted ? null : objectId, binary));
+    }
+
+    /**
+     * @return the new path of "diff --git a/old path b/new path"
+     */
+    private static String headerFilename(ByteBuffer buffer, int line) {
+        String header = lineAt(buffer, line);
+        int index = header.lastIndexOf(" b/");
+        return index < 0 ? null : header.substring(index + 3);
+    }
+
+    /**
+     * @return the blob ID after "..", from "index 1234567..89abcde 100644"
+     */
+    private static String postImageId(String line) {
+        int dots = line.indexOf("..");
+        if (dots < 0)
+            return null;
+        int end = line.indexOf(' ', dots);
+        String id = line.substring(dots + 2, end < 0 ? line.length() : end);
+        return id.chars().allMatch(c -> c == '0') ? null : id;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, byte[] prefix) {
+        if (offset + prefix.length > buffer.limit())
+            return false;
+        for (int i = 0; i != prefix.length; ++i) {
+            if (buffer.get(offset + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int nextLine(ByteBuffer buffer, int offset) {
+        int limit = buffer.limit();
+        while (offset < limit && buffer.get(offset) != '\n')
+            ++offset;
+        return offset + 1;
+    }
+
+    private static String lineAt(ByteBuffer buffer, int offset) {
+        int end = nextLine(buffer, offset) - 1;
+        if (end > offset && buffer.get(end - 1) == '\r')
+            --end;
+        return StandardCharsets.UTF_8.decode(buffer.slice(offset, end - offset)).toString();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+/**
+ * Time spent in the stages of a pipelined {@link Differ} run.
+ * <p>
+ * The producer loads the file diffs and is blocked when the prefetch queue is full,
+ * the consumers compare the loaded diffs and are idle when the queue is empty.
+ */
+public record PipelineStats(int items, int consumers,
+                            long producerBusyNanos, long producerBlockedNanos,
+                            long consumerBusyNanos, long consumerIdleNanos) {
+
+    public double producerUtilization() {
+        return utilization(producerBusyNanos, producerBlockedNanos);
+    }
+
+    /**
+     * @return the average utilization of the consumer threads.
+     */
+    public double consumerUtilization() {
+        return utilization(consumerBusyNanos, consumerIdleNanos);
+    }
+
+    private static double utilization(long busy, long waiting) {
+        return busy + waiting == 0 ? 0.0 : (double) busy / (busy + waiting);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.util.Arrays;
+
+/**
+ * The fingerprint is made of two 32-bit polynomial hashes over the signed bytes,
+ * mixed with the length, so a vectorized implementation can compute the same value.
+ */
+class ScalarLineKernel implements LineKernel {
+    static final int PRIME_1 = 31;
+    static final int PRIME_2 = 0x9E3779B1;
+    static final long LENGTH_MIX = 0x9E3779B97F4A7C15L;
+
+    @Override
+    public long fingerprint(byte[] buffer, int offset, int length) {
+        return fingerprintTail(buffer, offset, offset + length, 0, 0, length);
+    }
+
+    static long fingerprintTail(byte[] buffer, int from, int to, int h1, int h2, int length) {
+        for (int i = from; i < to; ++i) {
+            h1 = h1 * PRIME_1 + buffer[i];
+            h2 = h2 * PRIME_2 + buffer[i];
+        }
+        return combine(h1, h2, length);
+    }
+
+    static long combine(int h1, int h2, int length) {
+        return (((long) h1 << 32) | (h2 & 0xffffffffL)) ^ (length * LENGTH_MIX);
+    }
+
+    @Override
+    public boolean rangeEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        return Arrays.equals(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
+    }
+}
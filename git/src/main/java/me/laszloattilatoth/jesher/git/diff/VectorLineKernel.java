@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link LineKernel} on the Vector API, computing the same fingerprints as {@link ScalarLineKernel}.
+ * <p>
+ * The bytes are widened to int lanes, and each lane accumulates every L-th byte multiplied by
+ * the L-th power of the prime, where L is the lane count. The lanes are then weighted by the
+ * decreasing powers of the prime and summed, which gives exactly the scalar polynomial hash.
+ * <p>
+ * Loaded only by {@link LineKernels} if the jdk.incubator.vector module is available.
+ */
+class VectorLineKernel implements LineKernel {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES_TO_WIDEN = INTS.length() <= 8 ? ByteVector.SPECIES_64 : ByteVector.SPECIES_128;
+    private static final int PARTS = BYTES_TO_WIDEN.length() / INTS.length();
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    private static final int PRIME_1_POW_L = pow(ScalarLineKernel.PRIME_1, INTS.length());
+    private static final int PRIME_2_POW_L = pow(ScalarLineKernel.PRIME_2, INTS.length());
+    private static final IntVector PRIME_1_WEIGHTS = weights(ScalarLineKernel.PRIME_1);
+    private static final IntVector PRIME_2_WEIGHTS = weights(ScalarLineKernel.PRIME_2);
+
+    private static int pow(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i != exponent; ++i)
+            result *= base;
+        return result;
+    }
+
+    private static IntVector weights(int prime) {
+        int[] weights = new int[INTS.length()];
+        for (int i = 0; i != weights.length; ++i)
+            weights[i] = pow(prime, weights.length - 1 - i);
+        return IntVector.fromArray(INTS, weights, 0);
+    }
+
+    @Override
+    public long fingerprint(byte[] buffer, int offset, int length) {
+        IntVector acc1 = IntVector.zero(INTS);
+        IntVector acc2 = IntVector.zero(INTS);
+        int end = offset + length;
+        int i = offset;
+        for (; i + BYTES_TO_WIDEN.length() <= end; i += BYTES_TO_WIDEN.length()) {
+            ByteVector bytes = ByteVector.fromArray(BYTES_TO_WIDEN, buffer, i);
+            for (int part = 0; part != PARTS; ++part) {
+                IntVector ints = (IntVector) bytes.castShape(INTS, part);
+                acc1 = acc1.mul(PRIME_1_POW_L).add(ints);
+                acc2 = acc2.mul(PRIME_2_POW_L).add(ints);
+            }
+        }
+        int h1 = acc1.mul(PRIME_1_WEIGHTS).reduceLanes(VectorOperators.ADD);
+        int h2 = acc2.mul(PRIME_2_WEIGHTS).reduceLanes(VectorOperators.ADD);
+        return ScalarLineKernel.fingerprintTail(buffer, i, end, h1, h2, length);
+    }
+
+    @Override
+    public boolean rangeEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int i = 0;
+        for (; i + BYTES.length() <= length; i += BYTES.length()) {
+            ByteVector va = ByteVector.fromArray(BYTES, a, aOffset + i);
+            ByteVector vb = ByteVector.fromArray(BYTES, b, bOffset + i);
+            if (va.compare(VectorOperators.NE, vb).anyTrue())
+                return false;
+        }
+        for (; i < length; ++i) {
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import java.util.stream.Stream;
+
+/**
+ * Removes all whitespace from the added, removed and context lines, keeping their leading marker followed by
+ * a single space, so content starting with `+` or `-` is not mistaken for a file header.
+ */
+class WhitespaceNormalizer implements LineNormalizer {
+    @Override
+    public Stream<String> normalize(String filename, Stream<String> lines) {
+        return lines.map(WhitespaceNormalizer::normalizeLine);
+    }
+
+    static String normalizeLine(String line) {
+        if (line.isEmpty() || "+- ".indexOf(line.charAt(0)) < 0 || line.startsWith("+++") || line.startsWith("---"))
+            return line;
+
+        StringBuilder result = new StringBuilder(line.length() + 1);
+        result.append(line.charAt(0)).append(' ');
+        for (int i = 1; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (!Character.isWhitespace(c))
+                result.append(c);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import me.laszloattilatoth.jesher.git.Git;
+import me.laszloattilatoth.jesher.git.ObjectInfo;
+import me.laszloattilatoth.jesher.util.ProcessHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The uncommitted (staged and unstaged) changes of the working tree compared to HEAD.
+ * Untracked files are not included.
+ */
+public class WorkingTreeChangeSource extends GitChangeSource {
+    public static final String ID = "WORKING_TREE";
+
+    public WorkingTreeChangeSource(File repository) {
+        super(repository);
+    }
+
+    @Override
+    public String id() {
+        return ID;
+    }
+
+    @Override
+    public Collection<String> changedFiles() throws IOException {
+        return loadNumstat("git", "diff", "--numstat", "-z", "-M", "HEAD");
+    }
+
+    /**
+     * Hashes the existing files by a single `git hash-object --stdin-paths` call,
+     * and looks up the sizes in HEAD by a single `git cat-file` call.
+     */
+    @Override
+    public Map<String, FileInfo> fileInfos(Collection<String> filenames) throws IOException {
+        File root = new File(Git.repoRoot(repository));
+        List<String> existing = filenames.stream().filter(f -> new File(root, f).isFile()).toList();
+        List<String> objectIds = existing.isEmpty() ? List.of()
+                : ProcessHelper.getOutputReaderWithInput(root, existing, "git", "hash-object", "--stdin-paths").lines().toList();
+        Map<String, ObjectInfo> headObjects = Git.getObjectInfos(root, filenames.stream().map(f -> objectName("HEAD", f)).toList());
+
+        Map<String, FileInfo> result = new HashMap<>();
+        for (String filename : filenames) {
+            int index = existing.indexOf(filename);
+            String objectId = index >= 0 && index < objectIds.size() ? objectIds.get(index) : null;
+            ObjectInfo before = headObjects.get(objectName("HEAD", filename));
+            long size = Math.max(index >= 0 ? new File(root, filename).length() : 0, before == null ? 0 : before.size());
+            result.put(filename, new FileInfo(objectId, size));
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<String> diffLines(String filename) throws IOException {
+        return ProcessHelper.getOutputReader(repository, "git", "diff", "--no-color", "HEAD", "--", filename).lines();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.testsupport.FakeGerritServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChangeQueryTest {
+    private static final int CHANGES = 25;
+
+    private FakeGerritServer server;
+    private Gerrit gerrit;
+
+    /**
+     * Serves the changes 1..25 for any query, paginated by `n` and `S`.
+     */
+    private static String page(MatchResult match) {
+        int count = Integer.parseInt(match.group(1));
+        int start = match.group(2) == null ? 0 : Integer.parseInt(match.group(2));
+        int end = Math.min(CHANGES, start + count);
+        return IntStream.range(start, end)
+                .mapToObj(i -> {
+                    String change = FakeGerritServer.change(i + 1, 1);
+                    return i == end - 1 && end < CHANGES ? "{\"_more_changes\":true," + change.substring(1) : change;
+                })
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new FakeGerritServer.Builder()
+                .route("changes/\\?q=status%3Aopen(?:&o=[A-Z_]+)*&n=(\\d+)(?:&S=(\\d+))?", ChangeQueryTest::page)
+                .start();
+        gerrit = new Gerrit.Builder("127.0.0.1").useHttps(false).webPort(server.port()).build();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    private List<String> paths() {
+        return server.requests().stream().map(FakeGerritServer.Request::pathAndQuery).toList();
+    }
+
+    @Test
+    void pagination() throws IOException {
+        ChangeQuery query = new ChangeQuery.Builder(gerrit, "status:open").option("CURRENT_REVISION").pageSize(10).build();
+        List<ChangeInfo> changes = query.fetchAll();
+
+        assertThat(changes.stream().map(ChangeInfo::number).toList(), is(IntStream.rangeClosed(1, CHANGES).boxed().toList()));
+        assertThat(paths(), is(List.of(
+                "changes/?q=status%3Aopen&o=CURRENT_REVISION&n=10",
+                "changes/?q=status%3Aopen&o=CURRENT_REVISION&n=10&S=10",
+                "changes/?q=status%3Aopen&o=CURRENT_REVISION&n=10&S=20")));
+    }
+
+    @Test
+    void limit() {
+        ChangeQuery query = new ChangeQuery.Builder(gerrit, "status:open").pageSize(10).limit(15).build();
+        assertThat(query.stream().map(ChangeInfo::number).toList(), is(IntStream.rangeClosed(1, 15).boxed().toList()));
+        assertThat(paths(), is(List.of("changes/?q=status%3Aopen&n=10", "changes/?q=status%3Aopen&n=5&S=10")));
+    }
+
+    @Test
+    void lazy() {
+        ChangeQuery query = new ChangeQuery.Builder(gerrit, "status:open").pageSize(10).build();
+        assertThat(query.stream().limit(3).count(), is(3L));
+        assertThat(server.requests().stream().filter(r -> r.pathAndQuery().contains("S=20")).count(), is(0L));
+    }
+
+    @Test
+    void failure() {
+        ChangeQuery query = new ChangeQuery.Builder(gerrit, "status:merged").build();
+        assertThrows(UncheckedIOException.class, () -> query.iterator().hasNext());
+        assertThrows(GerritRestException.class, query::fetchAll);
+    }
+}
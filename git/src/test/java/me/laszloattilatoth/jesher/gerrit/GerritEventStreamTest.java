@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class GerritEventStreamTest {
+    private static final Duration SHORT = Duration.ofMillis(1);
+
+    /**
+     * A stand-in of `gerrit stream-events` printing the recorded events, then exiting as if the connection was lost.
+     */
+    private static List<String> recordedEvents() throws URISyntaxException {
+        Path events = Path.of(GerritEventStreamTest.class.getResource("stream-events.jsonl").toURI());
+        return List.of("cat", events.toString());
+    }
+
+    @Test
+    void parse() throws IOException {
+        GerritEvent event = GerritEvent.parse("{\"type\":\"patchset-created\",\"eventCreatedOn\":1650000000,"
+                + "\"change\":{\"number\":12345,\"project\":\"hive\",\"branch\":\"master\",\"owner\":{\"name\":\"x\"}},"
+                + "\"patchSet\":{\"number\":2,\"parents\":[\"a\"]}}");
+        assertThat(event.type(), is("patchset-created"));
+        assertThat(event.createdOn(), is(1650000000L));
+        assertThat(event.project(), is("hive"));
+        assertThat(event.branch(), is("master"));
+        assertThat(event.patchSet(), is(new PatchSet(12345, 2)));
+
+        assertThat(GerritEvent.parse("{\"type\":\"ref-updated\",\"refUpdate\":{}}").patchSet(), is(nullValue()));
+    }
+
+    @Test
+    void streamAndReconnect() throws Exception {
+        BlockingQueue<GerritEvent> events = new LinkedBlockingQueue<>();
+        List<String> gaps = new CopyOnWriteArrayList<>();
+        GerritEventStream stream = new GerritEventStream.Builder(recordedEvents(), events::put)
+                .reconnectBackoff(SHORT, SHORT)
+                .gapListener((lastCreatedOn, reconnects) -> gaps.add(lastCreatedOn + "/" + reconnects))
+                .start();
+
+        List<String> types = List.of(events.take().type(), events.take().type(), events.take().type(), events.take().type());
+        stream.close();
+
+        assertThat(types, is(List.of("patchset-created", "comment-added", "ref-updated", "patchset-created")));
+        assertThat(gaps.get(0), is("1650000120/1"));
+        assertThat(stream.stats().malformed(), greaterThanOrEqualTo(1L));
+        assertThat(stream.stats().reconnects(), greaterThanOrEqualTo(1L));
+    }
+
+    @Test
+    void backpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        GerritEventStream stream = new GerritEventStream.Builder(recordedEvents(), event -> {
+            started.countDown();
+            release.await();
+        }).queueCapacity(1).reconnectBackoff(SHORT, SHORT).start();
+
+        started.await(10, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        // one event in the handler, one in the queue, and the reader blocked on the third one
+        assertThat(stream.stats().received(), is(3L));
+        assertThat(stream.stats().handled(), is(0L));
+
+        release.countDown();
+        stream.close();
+        assertThat(stream.stats().handled(), is(stream.stats().received()));
+    }
+
+    @Test
+    void handlerFailures() throws Exception {
+        CountDownLatch handled = new CountDownLatch(3);
+        GerritEventStream stream = new GerritEventStream.Builder(recordedEvents(), event -> {
+            handled.countDown();
+            throw new IllegalStateException("handler failure");
+        }).handlerThreads(2).reconnectBackoff(Duration.ofHours(1), Duration.ofHours(1)).start();
+
+        handled.await(10, TimeUnit.SECONDS);
+        stream.close();
+        assertThat(stream.stats(), is(new GerritEventStream.Stats(3, 3, 3, 1, 0)));
+    }
+
+    @Test
+    void backoff() throws URISyntaxException, InterruptedException {
+        GerritEventStream stream = new GerritEventStream.Builder(recordedEvents(), event -> {
+        }).reconnectBackoff(Duration.ofNanos(10), Duration.ofNanos(50)).start();
+        stream.close();
+        assertThat(stream.backoffNanos(1), is(10L));
+        assertThat(stream.backoffNanos(2), is(20L));
+        assertThat(stream.backoffNanos(3), is(40L));
+        assertThat(stream.backoffNanos(4), is(50L));
+    }
+
+    @Test
+    void sshCommand() {
+        Gerrit gerrit = new Gerrit.Builder("x.com").sshUser("bot").sshIdentityFile("id").build();
+        assertThat(gerrit.sshCommand("gerrit", "stream-events"), is(List.of("ssh", "-p", "29418", "-i", "id", "bot@x.com", "gerrit", "stream-events")));
+    }
+}
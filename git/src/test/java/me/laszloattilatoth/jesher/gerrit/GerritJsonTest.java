@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GerritJsonTest {
+    private static <T> T decode(String json, GerritJson.Decoder<T> decoder) throws IOException {
+        return GerritJson.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), decoder);
+    }
+
+    @Test
+    void relatedChanges() throws IOException {
+        String json = """
+                {"changes": [{
+                  "project": "p", "change_id": "I1",
+                  "commit": {"commit": "c2", "parents": [{"commit": "c1", "subject": "s"}, {"commit": "c0"}], "author": {"name": "x"}},
+                  "_change_number": 10, "_revision_number": 2, "_current_revision_number": 3, "status": "NEW"
+                }, {
+                  "change_id": "I0", "commit": {"commit": "c1", "parents": []}, "_change_number": 9, "_revision_number": 1
+                }], "non_visible_changes": 0}
+                """;
+        assertThat(decode(json, GerritJson.RELATED_CHANGES), is(List.of(
+                new RelatedChange(10, 2, "I1", 3, "c2", "c1", "NEW"),
+                new RelatedChange(9, 1, "I0", 0, "c1", null, null))));
+        assertThat(decode("{}", GerritJson.RELATED_CHANGES), is(List.of()));
+    }
+
+    @Test
+    void change() throws IOException {
+        String json = """
+                {"id": "p~master~I1", "project": "p", "branch": "master", "change_id": "I1", "subject": "Fix",
+                 "status": "NEW", "updated": "2022-01-01 00:00:00.000000000", "_number": 10,
+                 "labels": {"Code-Review": {"all": [{"value": 1}]}},
+                 "current_revision": "c2",
+                 "revisions": {
+                   "c1": {"kind": "REWORK", "_number": 1, "ref": "refs/changes/10/10/1", "fetch": {"http": {}}},
+                   "c2": {"kind": "TRIVIAL_REBASE", "_number": 2, "ref": "refs/changes/10/10/2", "created": "2022-01-01"}
+                 }}
+                """;
+        assertThat(decode(json, GerritJson.CHANGE), is(new ChangeInfo("p~master~I1", 10, "p", "master", "I1", "Fix", "NEW",
+                "2022-01-01 00:00:00.000000000", "c2", List.of(
+                new RevisionInfo("c1", 1, "refs/changes/10/10/1", "REWORK", null),
+                new RevisionInfo("c2", 2, "refs/changes/10/10/2", "TRIVIAL_REBASE", "2022-01-01")), false)));
+    }
+
+    @Test
+    void changes() throws IOException {
+        List<ChangeInfo> changes = decode("[{\"_number\": 1}, {\"_number\": 2, \"_more_changes\": true}]", GerritJson.CHANGES);
+        assertThat(changes.stream().map(ChangeInfo::number).toList(), is(List.of(1, 2)));
+        assertThat(changes.get(0).moreChanges(), is(false));
+        assertThat(changes.get(1).moreChanges(), is(true));
+        assertThat(changes.get(1).revisions(), is(List.of()));
+    }
+
+    @Test
+    void unexpectedStructure() {
+        assertThrows(JsonParseException.class, () -> decode("[]", GerritJson.CHANGE));
+        assertThrows(JsonParseException.class, () -> decode("{\"changes\": {}}", GerritJson.RELATED_CHANGES));
+    }
+}
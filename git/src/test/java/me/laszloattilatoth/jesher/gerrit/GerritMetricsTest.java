@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.metrics.MetricsRegistry;
+import me.laszloattilatoth.jesher.metrics.SimpleMetricsRegistry;
+import me.laszloattilatoth.jesher.testsupport.FakeGerritReviewCommand;
+import me.laszloattilatoth.jesher.testsupport.FakeGerritServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GerritMetricsTest {
+    @Test
+    void endpoint() {
+        assertThat(GerritMetrics.endpoint("changes/123/revisions/2/related"), is("changes/*/revisions/*/related"));
+        assertThat(GerritMetrics.endpoint("changes/?q=status:open&n=10"), is("changes/"));
+        assertThat(GerritMetrics.endpoint("changes/project~master~I1234/revisions/0123456789abcdef0123456789abcdef01234567/files"),
+                is("changes/*/revisions/*/files"));
+        assertThat(GerritMetrics.endpoint("config/server/version"), is("config/server/version"));
+    }
+
+    @Test
+    void disabled() {
+        assertThat(GerritMetrics.of(null), sameInstance(GerritMetrics.DISABLED));
+        assertThat(GerritMetrics.of(MetricsRegistry.NOOP), sameInstance(GerritMetrics.DISABLED));
+        assertThat(GerritMetrics.of(new SimpleMetricsRegistry()).enabled(), is(true));
+    }
+
+    @Test
+    void rest() throws IOException {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        try (FakeGerritServer server = new FakeGerritServer.Builder().relatedStack(1, 3).start()) {
+            Gerrit gerrit = new Gerrit.Builder("127.0.0.1").useHttps(false).webPort(server.port()).metrics(registry).build();
+            gerrit.fetch("changes/1/revisions/1/related", GerritJson.RELATED_CHANGES);
+            gerrit.fetch("changes/2/revisions/1/related", GerritJson.RELATED_CHANGES);
+            assertThrows(GerritRestException.class, () -> gerrit.fetch("changes/9/revisions/1/related"));
+        }
+
+        assertThat(registry.histograms().get("gerrit.rest.latency{endpoint=changes/*/revisions/*/related,status=200}").count(), is(2L));
+        assertThat(registry.histograms().get("gerrit.rest.latency{endpoint=changes/*/revisions/*/related,status=404}").count(), is(1L));
+        assertThat(registry.counters().get("gerrit.rest.errors{endpoint=changes/*/revisions/*/related,status=404}").value(), is(1L));
+        assertThat(registry.counters(), not(hasKey("gerrit.rest.errors{endpoint=changes/*/revisions/*/related,status=200}")));
+        assertThat(registry.counters().get("gerrit.rest.bytes.in{endpoint=changes/*/revisions/*/related}").value(), greaterThan(200L));
+    }
+
+    @Test
+    void ssh(@TempDir Path tempDir) throws Exception {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        FakeGerritReviewCommand ssh = new FakeGerritReviewCommand.Builder(tempDir).failFirst(1).exitCode(3).build();
+        Gerrit gerrit = new Gerrit.Builder("x.com").sshUser("bot").sshExecutable(ssh.executable().toString()).metrics(registry).build();
+        assertThrows(IOException.class, () -> gerrit.sendReview(1, 1, new ReviewMessage().addBlockWithReview("first", 1)));
+
+        ReviewOutbox outbox = new ReviewOutbox.Builder(gerrit).metrics(registry).build();
+        outbox.submit(1, 1, new ReviewMessage().addBlockWithReview("second", 1)).get(10, TimeUnit.SECONDS);
+        outbox.close();
+
+        assertThat(registry.histograms().get("gerrit.ssh.latency{command=review,exit_code=3}").count(), is(1L));
+        assertThat(registry.histograms().get("gerrit.ssh.latency{command=review,exit_code=0}").count(), is(1L));
+        assertThat(registry.counters().get("gerrit.ssh.errors{command=review,exit_code=3}").value(), is(1L));
+        assertThat(registry.counters().get("gerrit.ssh.bytes.out{command=review}").value(), greaterThan(20L));
+        assertThat(registry.histograms().get("gerrit.ssh.channel.wait").count(), is(2L));
+        assertThat(registry.histograms().get("gerrit.outbox.queue.wait").count(), is(1L));
+    }
+
+    @Test
+    void histogram() {
+        SimpleMetricsRegistry.SimpleHistogram histogram = new SimpleMetricsRegistry().histogram("h");
+        for (long i = 1; i <= 100; ++i)
+            histogram.record(i);
+        assertThat(histogram.count(), is(100L));
+        assertThat(histogram.max(), is(100L));
+        assertThat(histogram.mean(), is(50.5));
+        assertThat(histogram.percentile(0.5), is(63L));
+        assertThat(histogram.percentile(1), is(100L));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GerritResponseCacheTest {
+    private long now = 0;
+    private final List<String> requests = new ArrayList<>();
+
+    private GerritResponseCache.Builder builder() {
+        return new GerritResponseCache.Builder().defaultTtl(Duration.ofNanos(10)).clock(() -> now);
+    }
+
+    /**
+     * Fetches the body "value of KEY", with ETag "KEY" if requested, and answers 304 to the matching If-None-Match.
+     */
+    private CompletableFuture<byte[]> get(GerritResponseCache cache, String key, boolean withEtag) {
+        return cache.get(key, etag -> {
+            requests.add(key + (etag == null ? "" : " if-none-match " + etag));
+            if (etag != null && etag.equals(key))
+                return CompletableFuture.completedFuture(new GerritResponseCache.Response(true, etag, null));
+            return CompletableFuture.completedFuture(new GerritResponseCache.Response(false, withEtag ? key : null, body(key)));
+        });
+    }
+
+    private static byte[] body(String key) {
+        return ("value of " + key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void hitWithinTtlAndRevalidateAfter() {
+        GerritResponseCache cache = builder().build();
+        assertThat(get(cache, "a", true).join(), is(body("a")));
+        now = 9;
+        assertThat(get(cache, "a", true).join(), is(body("a")));
+        assertThat(requests, is(List.of("a")));
+
+        now = 10;
+        assertThat(get(cache, "a", true).join(), is(body("a")));
+        assertThat(requests, is(List.of("a", "a if-none-match a")));
+        // revalidation restarts the TTL
+        now = 15;
+        get(cache, "a", true).join();
+        assertThat(requests.size(), is(2));
+
+        assertThat(cache.stats(), is(new GerritResponseCache.Stats(2, 1, 1, 0, 0, body("a").length, 1)));
+        assertThat(cache.stats().hitRatio(), closeTo(0.75, 1e-9));
+    }
+
+    @Test
+    void refetchWithoutEtag() {
+        GerritResponseCache cache = builder().build();
+        get(cache, "a", false).join();
+        now = 10;
+        get(cache, "a", false).join();
+        assertThat(requests, is(List.of("a", "a")));
+        assertThat(cache.stats().misses(), is(2L));
+    }
+
+    @Test
+    void endpointTtl() {
+        GerritResponseCache cache = builder().ttl("/related$", Duration.ofNanos(100)).ttl("^changes/", Duration.ZERO).build();
+        get(cache, "changes/1/revisions/1/related", false).join();
+        get(cache, "changes/1", false).join();
+        now = 50;
+        get(cache, "changes/1/revisions/1/related", false).join();
+        get(cache, "changes/1", false).join();
+        assertThat(requests, is(List.of("changes/1/revisions/1/related", "changes/1", "changes/1")));
+    }
+
+    @Test
+    void boundedByBytes() {
+        int size = body("a").length;
+        GerritResponseCache cache = builder().defaultTtl(Duration.ofHours(1)).maxBytes(2L * size).build();
+        get(cache, "a", false).join();
+        get(cache, "b", false).join();
+        get(cache, "a", false).join();
+        get(cache, "c", false).join();
+        // "b" was the least recently used
+        assertThat(cache.stats().evictions(), is(1L));
+        assertThat(cache.stats().bytes(), is(2L * size));
+        get(cache, "a", false).join();
+        get(cache, "b", false).join();
+        assertThat(requests, is(List.of("a", "b", "c", "b")));
+
+        get(cache, "a-too-long-value", false).join();
+        assertThat(cache.stats().entries(), is(2));
+    }
+
+    @Test
+    void collapseInFlightRequests() {
+        GerritResponseCache cache = builder().build();
+        CompletableFuture<GerritResponseCache.Response> response = new CompletableFuture<>();
+        List<String> etags = new ArrayList<>();
+        CompletableFuture<byte[]> first = cache.get("a", etag -> {
+            etags.add(etag);
+            return response;
+        });
+        CompletableFuture<byte[]> second = cache.get("a", etag -> {
+            throw new AssertionError("not collapsed");
+        });
+        assertThat(first.isDone(), is(false));
+        response.complete(new GerritResponseCache.Response(false, null, body("a")));
+
+        assertThat(first.join(), is(body("a")));
+        assertThat(second.join(), is(body("a")));
+        assertThat(etags.size(), is(1));
+        assertThat(etags.get(0), is(nullValue()));
+        assertThat(cache.stats().collapsed(), is(1L));
+    }
+
+    @Test
+    void errorsAreNotCached() {
+        GerritResponseCache cache = builder().build();
+        CompletableFuture<byte[]> failed = cache.get("a", etag -> CompletableFuture.failedFuture(new IOException("down")));
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertThat(e.getCause().getMessage(), is("down"));
+        assertThat(get(cache, "a", false).join(), is(body("a")));
+        assertThat(cache.stats().entries(), is(1));
+
+        cache.invalidate("a");
+        assertThat(cache.stats().entries(), is(0));
+    }
+
+    @Test
+    void fetchThrowingSynchronouslyIsNotLeftInFlight() {
+        GerritResponseCache cache = builder().build();
+        CompletableFuture<byte[]> failed = cache.get("a", etag -> {
+            throw new IllegalArgumentException("bad path");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertThat(e.getCause().getMessage(), is("bad path"));
+        assertThat(get(cache, "a", false).join(), is(body("a")));
+        assertThat(cache.stats().collapsed(), is(0L));
+    }
+}
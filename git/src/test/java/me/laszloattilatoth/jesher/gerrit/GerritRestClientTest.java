@@ -0,0 +1,165 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GerritRestClientTest {
+    private static final String CHANGE = "{\"_number\":1,\"status\":\"NEW\"}";
+
+    private HttpServer server;
+    private String baseUrl;
+    private final List<String> etagRequests = new CopyOnWriteArrayList<>();
+
+    public record Change(int _number, String status) {
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/changes/", exchange -> respond(exchange, 200, ")]}'\n" + CHANGE));
+        server.createContext("/list", exchange -> respond(exchange, 200, ")]}'\n[1,2,3]"));
+        server.createContext("/a/changes/", exchange -> {
+            String expected = "Basic " + Base64.getEncoder().encodeToString("bot:secret".getBytes(StandardCharsets.UTF_8));
+            if (expected.equals(exchange.getRequestHeaders().getFirst("Authorization")))
+                respond(exchange, 200, ")]}'\n" + CHANGE);
+            else
+                respond(exchange, 401, "Unauthorized");
+        });
+        server.createContext("/etag/", exchange -> {
+            etagRequests.add(String.valueOf(exchange.getRequestHeaders().getFirst("If-None-Match")));
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                respond(exchange, 200, ")]}'\n" + CHANGE);
+            }
+        });
+        server.createContext("/missing", exchange -> respond(exchange, 404, "Not found"));
+        server.start();
+        baseUrl = String.format("http://127.0.0.1:%d/", server.getAddress().getPort());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Compresses the response if the client accepts it.
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        if (gzip)
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(status, 0);
+        try (OutputStream output = gzip ? new GZIPOutputStream(exchange.getResponseBody()) : exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    @Test
+    void getString() throws Exception {
+        GerritRestClient client = new GerritRestClient.Builder(baseUrl).build();
+        assertThat(client.getString("changes/1").get(), is(CHANGE));
+        assertThat(client.getString("/changes/1").get(), is(CHANGE));
+    }
+
+    @Test
+    void getTyped() throws Exception {
+        GerritRestClient client = new GerritRestClient.Builder(baseUrl).build();
+        assertThat(client.get("changes/1", Change.class).get(), is(new Change(1, "NEW")));
+        assertThat(client.get("changes/1", new TypeReference<Map<String, Object>>() {}).get(), is(Map.of("_number", 1, "status", "NEW")));
+        assertThat(client.get("list", new TypeReference<List<Integer>>() {}).get(), is(List.of(1, 2, 3)));
+    }
+
+    @Test
+    void authentication() throws Exception {
+        GerritRestClient client = new GerritRestClient.Builder(baseUrl).credentials("bot", "secret").build();
+        assertThat(client.getUrl("changes/1"), is(baseUrl + "a/changes/1"));
+        assertThat(client.get("changes/1", Change.class).get(), is(new Change(1, "NEW")));
+
+        GerritRestClient wrongPassword = new GerritRestClient.Builder(baseUrl).credentials("bot", "wrong").build();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> wrongPassword.getString("changes/1").get());
+        assertThat(((GerritRestException) e.getCause()).statusCode(), is(401));
+    }
+
+    @Test
+    void errorStatus() {
+        GerritRestClient client = new GerritRestClient.Builder(baseUrl).build();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> client.getString("missing").get());
+        assertThat(e.getCause(), instanceOf(GerritRestException.class));
+        assertThat(e.getCause().getMessage(), is("HTTP 404 from " + baseUrl + "missing: Not found"));
+    }
+
+    @Test
+    void gerritFetch() throws IOException {
+        Gerrit gerrit = new Gerrit.Builder("127.0.0.1").useHttps(false).webPort(server.getAddress().getPort()).build();
+        assertThat(gerrit.fetch("changes/1"), is(CHANGE));
+        assertThrows(GerritRestException.class, () -> gerrit.fetch("missing"));
+    }
+
+    @Test
+    void cachedWithEtag() throws Exception {
+        GerritResponseCache cache = new GerritResponseCache.Builder().defaultTtl(Duration.ZERO).build();
+        Gerrit gerrit = new Gerrit.Builder("127.0.0.1").useHttps(false).webPort(server.getAddress().getPort()).httpCache(cache).build();
+        assertThat(gerrit.fetch("etag/1"), is(CHANGE));
+        assertThat(gerrit.restClient().get("/etag/1", Change.class).get(), is(new Change(1, "NEW")));
+
+        assertThat(etagRequests, is(List.of("null", "\"v1\"")));
+        assertThat(cache.stats().revalidations(), is(1L));
+        assertThat(cache.stats().misses(), is(1L));
+    }
+
+    @Test
+    void skipXssiPrefix() throws IOException {
+        assertThat(skip(")]}'\n{}"), is("{}"));
+        assertThat(skip(")]}'"), is(""));
+        assertThat(skip("{}"), is("{}"));
+        assertThat(skip(""), is(""));
+    }
+
+    private static String skip(String body) throws IOException {
+        return new String(GerritRestClient.skipXssiPrefix(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))).readAllBytes(),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -17,9 +17,17 @@
 package me.laszloattilatoth.jesher.gerrit;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class GerritTest {
     Gerrit gerrit = new Gerrit.Builder("gerrit.example.com").build();
@@ -48,4 +56,93 @@ class GerritTest {
         assertThat(new Gerrit.Builder("x.com").useHttps(false).webPort(443).build().getUrl(), is("http://x.com:443/"));
         assertThat(new Gerrit.Builder("x.com").useHttps(false).webPort(443).build().getUrl("/path"), is("http://x.com:443/path"));
     }
+
+    @Test
+    void sendReviewOverSharedSshConnection(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Path log = tempDir.resolve("ssh.log");
+        Path socket = tempDir.resolve("control");
+        Gerrit gerrit = new Gerrit.Builder("x.com").sshUser("bot").sshExecutable(fakeSsh(tempDir, log, 0).toString())
+                .sshControlMaster(true).sshControlPath(socket.toString()).maxSshChannels(2).build();
+        gerrit.sendReview(1, 2, new ReviewMessage().addBlockWithReview("first", 1));
+        gerrit.sendReview(3, 4, new ReviewMessage().addBlockWithReview("second", 1));
+        gerrit.close();
+        gerrit.close();
+
+        String shared = "-p 29418 -o ControlMaster=auto -o ControlPersist=10m -S " + socket + " bot@x.com";
+        assertThat(Files.readAllLines(log), is(List.of(
+                shared + " gerrit review --json 1 2", "master started",
+                shared + " gerrit review --json 3 4",
+                "-p 29418 -S " + socket + " -O exit bot@x.com")));
+    }
+
+    @Test
+    void sendReviewRestartsTheExitedSharedSshConnection(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Path log = tempDir.resolve("ssh.log");
+        Path socket = tempDir.resolve("control");
+        Gerrit gerrit = new Gerrit.Builder("x.com").sshUser("bot").sshExecutable(fakeSsh(tempDir, log, 0).toString())
+                .sshControlMaster(true).sshControlPath(socket.toString()).build();
+        gerrit.sendReview(1, 2, new ReviewMessage().addBlockWithReview("first", 1));
+        // the master exits after ControlPersist
+        Files.delete(socket);
+        gerrit.sendReview(3, 4, new ReviewMessage().addBlockWithReview("second", 1));
+        gerrit.close();
+
+        assertThat(Files.readAllLines(log).stream().filter("master started"::equals).count(), is(2L));
+    }
+
+    @Test
+    void closeDeletesTheTemporaryControlDirectory(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Path log = tempDir.resolve("ssh.log");
+        Gerrit gerrit = new Gerrit.Builder("x.com").sshUser("bot").sshExecutable(fakeSsh(tempDir, log, 0).toString())
+                .sshControlMaster(true).build();
+        gerrit.sendReview(1, 2, new ReviewMessage().addBlockWithReview("first", 1));
+        String firstLine = Files.readAllLines(log).get(0);
+        Path controlDirectory = Path.of(firstLine.replaceFirst(".* -S (\\S+) .*", "$1")).getParent();
+        assertThat(Files.isDirectory(controlDirectory), is(true));
+
+        gerrit.close();
+        assertThat(Files.exists(controlDirectory), is(false));
+    }
+
+    @Test
+    void sendReviewWithoutSharedSshConnection(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Path log = tempDir.resolve("ssh.log");
+        Gerrit gerrit = new Gerrit.Builder("x.com").sshUser("bot").sshIdentityFile("id").sshExecutable(fakeSsh(tempDir, log, 0).toString()).build();
+        gerrit.sendReview(1, 2, new ReviewMessage().addBlockWithReview("first", 1));
+        gerrit.close();
+
+        assertThat(Files.readAllLines(log), is(List.of("-p 29418 -i id bot@x.com gerrit review --json 1 2")));
+    }
+
+    @Test
+    void sendReviewFailure(@TempDir Path tempDir) throws IOException {
+        Gerrit gerrit = new Gerrit.Builder("x.com").sshUser("bot").sshExecutable(fakeSsh(tempDir, tempDir.resolve("ssh.log"), 3).toString()).build();
+        IOException e = assertThrows(IOException.class, () -> gerrit.sendReview(1, 2, new ReviewMessage()));
+        assertThat(e.getMessage(), containsString("exit code 3: no such change"));
+    }
+
+    @Test
+    void maxSshChannelsMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new Gerrit.Builder("x.com").maxSshChannels(0));
+    }
+
+    /**
+     * Creates an ssh replacement logging its arguments, and failing for `gerrit review` with the exit code if it's not zero.
+     * With `ControlMaster=auto` it creates the control socket and logs "master started" if the socket doesn't exist,
+     * and removes the socket on `-O exit`.
+     */
+    private static Path fakeSsh(Path dir, Path log, int exitCode) throws IOException {
+        Path script = dir.resolve("ssh");
+        Files.writeString(script, String.format("""
+                #!/bin/sh
+                echo "$*" >> '%1$s'
+                socket=; prev=
+                for arg in "$@"; do [ "$prev" = "-S" ] && socket="$arg"; prev="$arg"; done
+                case "$*" in *ControlMaster=auto*) [ -e "$socket" ] || { : > "$socket"; echo "master started" >> '%1$s'; } ;; esac
+                case "$*" in *"-O exit"*) rm -f "$socket" ;; esac
+                case "$*" in *review*) cat > /dev/null; [ %2$d -eq 0 ] || { echo "no such change" >&2; exit %2$d; } ;; esac
+                """, log, exitCode));
+        script.toFile().setExecutable(true);
+        return script;
+    }
 }
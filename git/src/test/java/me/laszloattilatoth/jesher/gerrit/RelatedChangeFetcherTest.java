@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.testsupport.FakeGerritServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RelatedChangeFetcherTest {
+    /**
+     * A stack of 3 changes (3 on top of 2 on top of 1), the third one at revision 2.
+     */
+    private static final String STACK = "{\"changes\":["
+            + related(3, 2, "c3", "c2") + "," + related(2, 1, "c2", "c1") + "," + related(1, 1, "c1", "base") + "]}";
+
+    private FakeGerritServer server;
+    private Gerrit gerrit;
+
+    private static String related(int change, int revision, String commit, String parent) {
+        return String.format("{\"change_id\":\"I%d\",\"commit\":{\"commit\":\"%s\",\"parents\":[{\"commit\":\"%s\"}]},"
+                + "\"_change_number\":%d,\"_revision_number\":%d,\"_current_revision_number\":%d,\"status\":\"NEW\"}",
+                change, commit, parent, change, revision, revision);
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        // change 5 is unknown, so it is answered by 404
+        server = new FakeGerritServer.Builder()
+                .route("changes/[123]/revisions/\\d+/related", STACK)
+                .route("changes/4/revisions/\\d+/related", "{\"changes\":[]}")
+                .start();
+        gerrit = new Gerrit.Builder("127.0.0.1").useHttps(false).webPort(server.port()).build();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    @Test
+    void fetchAsChain() {
+        List<RelatedChange> chain = new RelatedChangeFetcher(gerrit).fetchAsChain(3, 2);
+        assertThat(chain.stream().map(RelatedChange::changeNumber).toList(), is(List.of(3, 2, 1)));
+        assertThat(chain.get(0), is(new RelatedChange(3, 2, "I3", 2, "c3", "c2", "NEW")));
+    }
+
+    @Test
+    void fetchAsChainsReusesRelationGraph() throws IOException, InterruptedException {
+        RelatedChangeFetcher fetcher = new RelatedChangeFetcher(gerrit);
+        List<PatchSet> patchSets = List.of(new PatchSet(3, 2), new PatchSet(2, 1), new PatchSet(1, 1), new PatchSet(4, 1), new PatchSet(3, 2));
+        Map<PatchSet, List<RelatedChange>> chains = fetcher.fetchAsChains(patchSets, 1);
+
+        assertThat(List.copyOf(chains.keySet()), is(List.of(new PatchSet(3, 2), new PatchSet(2, 1), new PatchSet(1, 1), new PatchSet(4, 1))));
+        assertThat(chains.get(new PatchSet(3, 2)).stream().map(RelatedChange::changeNumber).toList(), is(List.of(3, 2, 1)));
+        assertThat(chains.get(new PatchSet(2, 1)).stream().map(RelatedChange::changeNumber).toList(), is(List.of(2, 1)));
+        assertThat(chains.get(new PatchSet(1, 1)).stream().map(RelatedChange::changeNumber).toList(), is(List.of(1)));
+        assertThat(chains.get(new PatchSet(4, 1)), is(List.of()));
+        assertThat(paths(), containsInAnyOrder("changes/3/revisions/2/related", "changes/4/revisions/1/related"));
+    }
+
+    @Test
+    void fetchAsChainsInParallel() throws IOException, InterruptedException {
+        Map<PatchSet, List<RelatedChange>> chains = new RelatedChangeFetcher(gerrit)
+                .fetchAsChains(List.of(new PatchSet(3, 2), new PatchSet(4, 1)), 2);
+        assertThat(chains.size(), is(2));
+        assertThat(server.requestCount(), is(2));
+    }
+
+    @Test
+    void fetchWithGraph() throws IOException, InterruptedException {
+        RelatedChangeGraph graph = new RelatedChangeGraph();
+        RelatedChangeFetcher fetcher = new RelatedChangeFetcher(gerrit, graph);
+        assertThat(fetcher.fetchAsChain(3, 2).size(), is(3));
+        assertThat(fetcher.fetchAsChain(2, 1).size(), is(2));
+        assertThat(fetcher.fetchAsChains(List.of(new PatchSet(1, 1), new PatchSet(3, 2))).get(new PatchSet(1, 1)).size(), is(1));
+        assertThat(server.requestCount(), is(1));
+        assertThat(graph.size(), is(3));
+    }
+
+    @Test
+    void fetchAsChainsFailure() {
+        RelatedChangeFetcher fetcher = new RelatedChangeFetcher(gerrit);
+        assertThrows(GerritRestException.class, () -> fetcher.fetchAsChains(List.of(new PatchSet(3, 2), new PatchSet(5, 1))));
+    }
+
+    private List<String> paths() {
+        return server.requests().stream().map(FakeGerritServer.Request::pathAndQuery).toList();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class RelatedChangeGraphTest {
+    private static RelatedChange change(int number, int revision, String commit, String parent) {
+        return new RelatedChange(number, revision, "I" + number, revision, commit, parent, "NEW");
+    }
+
+    private static List<Integer> numbers(List<RelatedChange> changes) {
+        return changes.stream().map(RelatedChange::changeNumber).toList();
+    }
+
+    /**
+     * 1 - 2 - 3 and 2 - 4, as returned by Gerrit in any order.
+     */
+    private static RelatedChangeGraph graph() {
+        RelatedChangeGraph graph = new RelatedChangeGraph();
+        graph.merge(List.of(change(3, 1, "c3", "c2"), change(1, 1, "c1", "base")));
+        graph.merge(List.of(change(4, 1, "c4", "c2"), change(2, 1, "c2", "c1")));
+        return graph;
+    }
+
+    @Test
+    void chainAndDescendants() {
+        RelatedChangeGraph graph = graph();
+        assertThat(numbers(graph.chain(3, 1)), is(List.of(3, 2, 1)));
+        assertThat(numbers(graph.chain(4, 1)), is(List.of(4, 2, 1)));
+        assertThat(numbers(graph.descendants(1, 1)), is(List.of(2, 3, 4)));
+        assertThat(graph.descendants(3, 1), is(List.of()));
+        assertThat(graph.chain(5, 1), is(nullValue()));
+        assertThat(graph.size(), is(4));
+    }
+
+    @Test
+    void newRevision() {
+        RelatedChangeGraph graph = graph();
+        graph.update(new RelatedChange(2, 2, "I2", 2, "c2b", "c1", "NEW"));
+
+        // the old descendants still build on the outdated revision
+        assertThat(graph.chain(3, 1).get(1), is(new RelatedChange(2, 1, "I2", 2, "c2", "c1", "NEW")));
+        assertThat(numbers(graph.chain(2, 2)), is(List.of(2, 1)));
+        assertThat(numbers(graph.descendants(1, 1)), is(List.of(2, 2, 3, 4)));
+
+        graph.update(new RelatedChange(3, 2, "I3", 2, "c3b", "c2b", "NEW"));
+        assertThat(numbers(graph.descendants(2, 2)), is(List.of(3)));
+        assertThat(graph.chain(3, 2).get(1).commitId(), is("c2b"));
+    }
+
+    @Test
+    void closed() {
+        RelatedChangeGraph graph = graph();
+        assertThat(graph.updateStatus("I1", "MERGED"), is(true));
+        assertThat(graph.updateStatus("I9", "MERGED"), is(false));
+        assertThat(graph.chain(3, 1).get(2).closed(), is(true));
+
+        graph.remove("I1");
+        assertThat(numbers(graph.chain(3, 1)), is(List.of(3, 2)));
+        assertThat(graph.contains(1, 1), is(false));
+
+        // the parent is linked again when it's seen later
+        graph.merge(List.of(change(1, 1, "c1", "base")));
+        assertThat(numbers(graph.chain(3, 1)), is(List.of(3, 2, 1)));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReviewCoalescerTest {
+    private record Sent(int changeId, int revision, String message, Map<String, Integer> labels) {
+    }
+
+    private final List<Sent> sent = new CopyOnWriteArrayList<>();
+    private final ReviewSender sender = (changeId, revision, reviewMessage, withoutLabels) ->
+            sent.add(new Sent(changeId, revision, reviewMessage.get(), withoutLabels ? Map.of() : reviewMessage.getLabels()));
+
+    @Test
+    void mergeWithinWindow() throws Exception {
+        ReviewCoalescer coalescer = new ReviewCoalescer(sender, Duration.ofMillis(200));
+        CompletableFuture<Void> first = coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("first", 1));
+        CompletableFuture<Void> second = coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("second", -1).addLabel("Verified", 1));
+        CompletableFuture<Void> third = coalescer.submit(1, 3, new ReviewMessage().addBlockWithReview("other revision", 1));
+        coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("text only", 2), true);
+        CompletableFuture.allOf(first, second, third).get(10, TimeUnit.SECONDS);
+
+        assertThat(sent, containsInAnyOrder(
+                new Sent(1, 2, " :) first\n\n/o\\ second\n\n :) text only", Map.of("Code-Review", -1, "Verified", 1)),
+                new Sent(1, 3, " :) other revision", Map.of("Code-Review", 1))));
+        coalescer.close();
+    }
+
+    @Test
+    void newWindowAfterFlush() throws Exception {
+        ReviewCoalescer coalescer = new ReviewCoalescer(sender, Duration.ofMillis(1));
+        coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("first", 1)).get(10, TimeUnit.SECONDS);
+        coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("second", 1)).get(10, TimeUnit.SECONDS);
+        coalescer.close();
+
+        assertThat(sent, hasSize(2));
+    }
+
+    @Test
+    void closeSendsPendingReviews() throws InterruptedException {
+        ReviewCoalescer coalescer = new ReviewCoalescer(sender, Duration.ofHours(1));
+        CompletableFuture<Void> future = coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("first", 1));
+        coalescer.close();
+
+        assertThat(future.isDone(), is(true));
+        assertThat(sent, hasSize(1));
+        assertThrows(RuntimeException.class, () -> coalescer.submit(1, 2, new ReviewMessage()));
+    }
+
+    @Test
+    void failure() throws InterruptedException {
+        ReviewCoalescer coalescer = new ReviewCoalescer((changeId, revision, reviewMessage, withoutLabels) -> {
+            throw new IOException("failed");
+        }, Duration.ofMillis(1));
+        CompletableFuture<Void> future = coalescer.submit(1, 2, new ReviewMessage());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertThat(e.getCause(), instanceOf(IOException.class));
+        coalescer.close();
+    }
+
+    @Test
+    void mergedReviewsAreRetriedAndJournaledByTheOutbox(@TempDir Path tempDir) throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> journalWhileSending = new CopyOnWriteArrayList<>();
+        Path journal = tempDir.resolve("outbox.journal");
+        ReviewOutbox outbox = new ReviewOutbox.Builder((changeId, revision, reviewMessage, withoutLabels) -> {
+            journalWhileSending.add(Files.readString(journal));
+            if (attempts.incrementAndGet() == 1)
+                throw new IOException("failed");
+            sender.sendReview(changeId, revision, reviewMessage, withoutLabels);
+        }).backoff(Duration.ofMillis(10), Duration.ofMillis(10)).maxAttempts(2).journal(journal).build();
+        ReviewCoalescer coalescer = new ReviewCoalescer(outbox, Duration.ofHours(1));
+        CompletableFuture<Void> first = coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("first", 1));
+        CompletableFuture<Void> second = coalescer.submit(1, 2, new ReviewMessage().addBlockWithReview("second", 1));
+        coalescer.close();
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+        outbox.close();
+
+        assertThat(attempts.get(), is(2));
+        assertThat(journalWhileSending.get(0), containsString("second"));
+        assertThat(sent, containsInAnyOrder(new Sent(1, 2, " :) first\n\n :) second", Map.of("Code-Review", 1))));
+        outbox = new ReviewOutbox.Builder(sender).journal(journal).build();
+        assertThat(outbox.recovered(), is(0));
+        outbox.close();
+    }
+}
@@ -165,6 +165,20 @@ class ReviewMessageTest {
         assertThat(new ReviewMessage(new CustomPrefix()).addBlockWithReview("txt", 2).get(), is("G00D txt"));
     }
 
+    @Test
+    void merge() {
+        m.addBlockWithReview("first", 1).addLabel("Verified", 1);
+        ReviewMessage other = new ReviewMessage().addBlockWithReview("second", -1).addLabel("Verified", -1).addLabel("Other", 1);
+        assertThat(m.merge(other, false), is(m));
+        assertThat(m.get(), is(" :) first\n\n/o\\ second"));
+        assertThat(m.getLabels(), is(Map.of("Code-Review", -1, "Verified", -1, "Other", 1)));
+
+        m.merge(new ReviewMessage().addBlockWithReview("third", 2), true);
+        m.merge(new ReviewMessage(), false);
+        assertThat(m.get(), is(" :) first\n\n/o\\ second\n\n :) third"));
+        assertThatCr(-1);
+    }
+
     private static class CustomPrefix implements MessagePrefix {
 
         @Override
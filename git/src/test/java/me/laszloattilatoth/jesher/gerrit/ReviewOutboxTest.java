@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.gerrit;
+
+import me.laszloattilatoth.jesher.testsupport.FakeGerritReviewCommand;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReviewOutboxTest {
+    private static final Duration SHORT = Duration.ofMillis(1);
+
+    @Test
+    void submit(@TempDir Path tempDir) throws Exception {
+        FakeGerritReviewCommand ssh = new FakeGerritReviewCommand.Builder(tempDir).build();
+        ReviewOutbox outbox = new ReviewOutbox.Builder(gerrit(ssh)).concurrency(3).build();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= 5; ++i) {
+            futures.add(outbox.submit(i, 1, new ReviewMessage().addBlockWithReview("review", 1)));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        outbox.close();
+
+        assertThat(patchSets(ssh), containsInAnyOrder("1,1", "2,1", "3,1", "4,1", "5,1"));
+        assertThrows(RuntimeException.class, () -> outbox.submit(6, 1, new ReviewMessage()));
+    }
+
+    @Test
+    void retryWithBackoff(@TempDir Path tempDir) throws Exception {
+        FakeGerritReviewCommand ssh = new FakeGerritReviewCommand.Builder(tempDir).failFirst(2).build();
+        ReviewOutbox outbox = new ReviewOutbox.Builder(gerrit(ssh)).backoff(SHORT, SHORT).maxAttempts(3).build();
+        outbox.submit(1, 2, new ReviewMessage()).get(10, TimeUnit.SECONDS);
+        outbox.close();
+
+        assertThat(patchSets(ssh), is(List.of("1,2", "1,2", "1,2")));
+    }
+
+    @Test
+    void failAfterMaxAttempts(@TempDir Path tempDir) throws Exception {
+        FakeGerritReviewCommand ssh = new FakeGerritReviewCommand.Builder(tempDir).failFirst(5).build();
+        ReviewOutbox outbox = new ReviewOutbox.Builder(gerrit(ssh)).backoff(SHORT, SHORT).maxAttempts(2).build();
+        CompletableFuture<Void> future = outbox.submit(1, 2, new ReviewMessage());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        outbox.close();
+
+        assertThat(e.getCause().getMessage(), is("gerrit review failed on change 1,2 with exit code 1: " + FakeGerritReviewCommand.FAILURE_MESSAGE));
+        assertThat(ssh.reviews(), hasSize(2));
+    }
+
+    @Test
+    void rateLimit(@TempDir Path tempDir) throws Exception {
+        ReviewOutbox outbox = new ReviewOutbox.Builder(gerrit(new FakeGerritReviewCommand.Builder(tempDir).build()))
+                .concurrency(4).maxReviewsPerSecond(50).build();
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= 5; ++i) {
+            futures.add(outbox.submit(i, 1, new ReviewMessage()));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        outbox.close();
+
+        // 4 intervals of 20 ms between the 5 starts
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(80L));
+    }
+
+    @Test
+    void backoff() throws IOException {
+        ReviewOutbox outbox = new ReviewOutbox.Builder(new Gerrit.Builder("x.com").build())
+                .backoff(Duration.ofMillis(100), Duration.ofMillis(1000)).build();
+        assertThat(outbox.backoffNanos(1), is(TimeUnit.MILLISECONDS.toNanos(100)));
+        assertThat(outbox.backoffNanos(2), is(TimeUnit.MILLISECONDS.toNanos(200)));
+        assertThat(outbox.backoffNanos(4), is(TimeUnit.MILLISECONDS.toNanos(800)));
+        assertThat(outbox.backoffNanos(5), is(TimeUnit.MILLISECONDS.toNanos(1000)));
+        assertThat(outbox.backoffNanos(100), is(TimeUnit.MILLISECONDS.toNanos(1000)));
+    }
+
+    @Test
+    void journalSurvivesRestart(@TempDir Path tempDir) throws Exception {
+        FakeGerritReviewCommand ssh = new FakeGerritReviewCommand.Builder(tempDir).build();
+        Path journal = tempDir.resolve("outbox.journal");
+        // two queued reviews, the first one is done, and a partially written record of a crash
+        Files.writeString(journal, """
+                {"id":1,"change":10,"revision":1,"message":"first","labels":{}}
+                {"id":2,"change":20,"revision":3,"message":"second","labels":{"Code-Review":-1,"Verified":1}}
+                {"done":1}
+                {"id":3,"change":30,""");
+
+        ReviewOutbox outbox = new ReviewOutbox.Builder(gerrit(ssh)).journal(journal).build();
+        assertThat(outbox.recovered(), is(1));
+        outbox.submit(40, 2, new ReviewMessage().addBlockWithReview("third", 1)).get(10, TimeUnit.SECONDS);
+        outbox.close();
+
+        assertThat(patchSets(ssh), containsInAnyOrder("20,3", "40,2"));
+        String input = ssh.reviews().stream().map(FakeGerritReviewCommand.Invocation::input).collect(Collectors.joining());
+        assertThat(input, containsString("\"message\":\"second\""));
+        assertThat(input, containsString("\"Verified\":1"));
+        assertThat(input, containsString("\"Code-Review\":-1"));
+
+        // everything is done, nothing is recovered
+        outbox = new ReviewOutbox.Builder(gerrit(ssh)).journal(journal).build();
+        assertThat(outbox.recovered(), is(0));
+        outbox.close();
+        assertThat(Files.readString(journal), is(""));
+    }
+
+    private static Gerrit gerrit(FakeGerritReviewCommand ssh) {
+        return new Gerrit.Builder("x.com").sshUser("bot").sshExecutable(ssh.executable().toString()).build();
+    }
+
+    private static List<String> patchSets(FakeGerritReviewCommand ssh) throws IOException {
+        return ssh.reviews().stream().map(FakeGerritReviewCommand.Invocation::patchSet).toList();
+    }
+}
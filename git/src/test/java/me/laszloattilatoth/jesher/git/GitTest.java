@@ -23,6 +23,9 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -116,4 +119,15 @@ public class GitTest {
     @Test
     void getDistance() {
     }
+
+    @Test
+    void getObjectInfos() throws IOException {
+        String existing = RepoCreator.SECOND_BRANCH + ":second.txt";
+        String missing = RepoCreator.MASTER_BRANCH + ":second.txt";
+        Map<String, ObjectInfo> infos = Git.getObjectInfos(repo, List.of(existing, missing));
+        assertThat(infos.keySet(), is(Set.of(existing)));
+        assertThat(infos.get(existing).type(), is("blob"));
+        assertThat(infos.get(existing).size(), is((long) String.format(RepoCreator.CONTENT_FMT, "hello", "world\n").length()));
+        assertThat(Git.getObjectInfos(repo, List.of()).isEmpty(), is(true));
+    }
 }
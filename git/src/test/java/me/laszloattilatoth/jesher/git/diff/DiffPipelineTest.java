@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DiffPipelineTest {
+    @Test
+    void runChecksEveryItem() throws IOException {
+        DiffPipeline<Integer> pipeline = new DiffPipeline<>(2, 3);
+        boolean[] results = pipeline.run(10, i -> i, i -> i % 2 == 0);
+        for (int i = 0; i != results.length; ++i)
+            assertThat(results[i], is(i % 2 == 0));
+    }
+
+    @Test
+    void failedLoadStopsTheConsumerThreads() {
+        DiffPipeline<Integer> pipeline = new DiffPipeline<>(2, 4);
+        assertThrows(IOException.class, () -> pipeline.run(10, i -> {
+            if (i == 3)
+                throw new IOException("load failed");
+            return i;
+        }, i -> true));
+
+        assertThat(consumerThreadCount(), is(0L));
+    }
+
+    private static long consumerThreadCount() {
+        return Thread.getAllStackTraces().values().stream()
+                .filter(stack -> Arrays.stream(stack).anyMatch(frame -> frame.getClassName().equals(DiffPipeline.class.getName())))
+                .count();
+    }
+}
@@ -30,8 +30,9 @@ public class DiffResultTest {
     List<String> upstreamOnly = List.of("checksums.txt", "LICENCE");
     List<String> same = List.of("git.c", "stdio.h");
     List<String> different = List.of("Differ.java", "SshProxy.java");
+    List<String> binary = List.of("SshProxy.java");
 
-    DiffResult result = new DiffResult("local", "upstreamId", same, different, localOnly, upstreamOnly);
+    DiffResult result = new DiffResult("local", "upstreamId", same, different, localOnly, upstreamOnly, binary);
 
     @Test
     void testListsReturnSameValuesAsProvided() {
@@ -39,28 +40,36 @@ public class DiffResultTest {
         assertThat(result.different(), is(different));
         assertThat(result.localOnly(), is(localOnly));
         assertThat(result.upstreamOnly(), is(upstreamOnly));
+        assertThat(result.binary(), is(binary));
         assertThat(result.isSameAsUpstream(), is(false));
     }
 
+    @Test
+    void testBinaryIsEmptyByDefault() {
+        assertThat(new DiffResult("local", "upstreamId", same, different, localOnly, upstreamOnly).binary(), is(List.of()));
+    }
+
     @Test
     void testDefaultToMapReturnsSameValues() {
         Map<String, List<String>> map = result.toMap();
-        assertThat(map.size(), is(4));
+        assertThat(map.size(), is(5));
         assertThat(map.get("same"), is(same));
         assertThat(map.get("different"), is(different));
         assertThat(map.get("local_only"), is(localOnly));
         assertThat(map.get("upstream_only"), is(upstreamOnly));
+        assertThat(map.get("binary"), is(binary));
     }
 
     @Test
     void testToMapReturnsSameValues() {
         Map<String, List<String>> map = result.toMap(new DiffResultKeyProvider() {
         });
-        assertThat(map.size(), is(4));
+        assertThat(map.size(), is(5));
         assertThat(map.get("same"), is(same));
         assertThat(map.get("different"), is(different));
         assertThat(map.get("local_only"), is(localOnly));
         assertThat(map.get("upstream_only"), is(upstreamOnly));
+        assertThat(map.get("binary"), is(binary));
     }
 
     @Test
@@ -72,16 +81,18 @@ public class DiffResultTest {
         assertNotSame(different, map.get("different"));
         assertNotSame(localOnly, map.get("localOnly"));
         assertNotSame(upstreamOnly, map.get("upstream_only"));
+        assertNotSame(binary, map.get("binary"));
     }
 
     @Test
     void testToMapWithDownstreamKeyProvider() {
         Map<String, List<String>> map = result.toMap(new DiffResultWithDownstreamKeyProvider());
-        assertThat(map.size(), is(4));
+        assertThat(map.size(), is(5));
         assertThat(map.get("same"), is(same));
         assertThat(map.get("different"), is(different));
         assertThat(map.get("downstream_only"), is(localOnly));
         assertThat(map.get("upstream_only"), is(upstreamOnly));
+        assertThat(map.get("binary"), is(binary));
     }
 
     @Test
@@ -21,6 +21,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -29,6 +30,7 @@ import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DifferTest {
@@ -75,6 +77,224 @@ class DifferTest {
         assertEqualsAsSet(Set.of("sixth.txt", "fifth.txt"), result.localOnly());
     }
 
+    @Test
+    void runPipelined(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.cherryPick();
+
+        DiffOptions options = new DiffOptions.Builder().pipelined(true).prefetchQueueSize(1).diffThreads(2).build();
+        Differ differ = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, RepoCreator.SECOND_BRANCH, new Mapper(), options);
+        DiffResult result = differ.run();
+        assertEqualsAsSet(Set.of("fourth.txt"), result.different());
+        assertEqualsAsSet(Set.of("second.txt"), result.upstreamOnly());
+        assertEqualsAsSet(Set.of("third.txt", "first.java"), result.same());
+        assertEqualsAsSet(Set.of("sixth.txt", "fifth.txt"), result.localOnly());
+
+        PipelineStats stats = differ.pipelineStats();
+        assertEquals(3, stats.items());
+        assertEquals(2, stats.consumers());
+        assertTrue(stats.producerBusyNanos() > 0);
+        assertTrue(stats.producerUtilization() > 0.0 && stats.producerUtilization() <= 1.0);
+        assertTrue(stats.consumerUtilization() >= 0.0 && stats.consumerUtilization() <= 1.0);
+    }
+
+    @Test
+    void overriddenComparisonIsUsedInBothModes(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.cherryPick();
+
+        for (boolean pipelined : new boolean[]{false, true}) {
+            DiffOptions options = new DiffOptions.Builder().pipelined(pipelined).build();
+            Differ differ = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, RepoCreator.SECOND_BRANCH, new Mapper(), options) {
+                @Override
+                protected boolean isSameChange(List<String> localDiff, List<String> upstreamDiff) {
+                    return false;
+                }
+            };
+            DiffResult result = differ.run();
+            assertEqualsAsSet(Set.of("third.txt", "first.java", "fourth.txt"), result.different());
+            assertEqualsAsSet(Set.of(), result.same());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void overriddenCommitLoaderIsStillCalled(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.cherryPick();
+
+        List<String> loaded = new ArrayList<>();
+        Differ differ = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, RepoCreator.SECOND_BRANCH) {
+            @Override
+            protected List<String> loadLines(String commit, String filename) throws IOException {
+                loaded.add(commit + ":" + filename);
+                return super.loadLines(commit, filename);
+            }
+        };
+        DiffResult result = differ.run();
+        assertEqualsAsSet(Set.of("third.txt", "first.java"), result.same());
+        assertTrue(loaded.contains(RepoCreator.MASTER_BRANCH + ":fourth.txt"));
+        assertTrue(loaded.contains(RepoCreator.SECOND_BRANCH + ":fourth.txt"));
+    }
+
+    @Test
+    void runWithLineFingerprints(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.cherryPick();
+
+        DiffOptions options = new DiffOptions.Builder().fingerprintLines(true).build();
+        DiffResult result = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, RepoCreator.SECOND_BRANCH, new Mapper(), options).run();
+        assertEqualsAsSet(Set.of("fourth.txt"), result.different());
+        assertEqualsAsSet(Set.of("third.txt", "first.java"), result.same());
+    }
+
+    @Test
+    void comparisonModes(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.writeToFile("Imports.java", "import b.B;\nimport a.A;", "");
+        creator.writeToFile("spaces.txt", "a b c", "");
+        creator.run("git", "add", ".");
+        creator.run("git", "commit", "-m", "base");
+        creator.run("git", "checkout", "-b", "upstream");
+        creator.writeToFile("Imports.java", "import b.B;\nimport a.A;\nimport c.C;", "");
+        creator.writeToFile("spaces.txt", "a b c d", "");
+        creator.run("git", "commit", "-a", "-m", "upstream");
+        creator.run("git", "checkout", RepoCreator.MASTER_BRANCH);
+        // reordered imports, reflowed whitespace and an extra blank line
+        creator.writeToFile("Imports.java", "import a.A;\nimport b.B;\nimport c.C;", "");
+        creator.writeToFile("spaces.txt", "a  b\tc d", "\n");
+        creator.run("git", "commit", "-a", "-m", "local");
+
+        DiffResult result = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, "upstream").run();
+        assertEqualsAsSet(Set.of("Imports.java", "spaces.txt"), result.different());
+
+        DiffOptions options = new DiffOptions.Builder()
+                .comparisonModes(ComparisonMode.SORT_JAVA_IMPORTS, ComparisonMode.IGNORE_ALL_WHITESPACE, ComparisonMode.IGNORE_BLANK_LINES)
+                .build();
+        result = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, "upstream", new Mapper(), options).run();
+        assertEqualsAsSet(Set.of("Imports.java", "spaces.txt"), result.same());
+    }
+
+    @Test
+    void ignoringAllWhitespaceKeepsLinesStartingWithMarkers(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.writeToFile("Counter.java", "int i;\n    -1,", "");
+        creator.run("git", "add", ".");
+        creator.run("git", "commit", "-m", "base");
+        creator.run("git", "checkout", "-b", "upstream");
+        creator.writeToFile("Counter.java", "int i;\n    --i;", "");
+        creator.run("git", "commit", "-a", "-m", "upstream");
+        creator.run("git", "checkout", RepoCreator.MASTER_BRANCH);
+        creator.writeToFile("Counter.java", "int i;\n    ++i;", "");
+        creator.run("git", "commit", "-a", "-m", "local");
+
+        DiffOptions options = new DiffOptions.Builder()
+                .comparisonModes(ComparisonMode.IGNORE_ALL_WHITESPACE)
+                .build();
+        DiffResult result = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, "upstream", new Mapper(), options).run();
+        assertEqualsAsSet(Set.of("Counter.java"), result.different());
+        assertEqualsAsSet(Set.of(), result.same());
+    }
+
+    @Test
+    void runWithPatchDirectory(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.cherryPick();
+        Path patches = tempDir.resolve(".git/patches");
+        creator.run("git", "format-patch", "-1", RepoCreator.MASTER_BRANCH, "-o", patches.toString());
+
+        ChangeSource local = new PatchDirectoryChangeSource(patches.toFile());
+        ChangeSource upstream = new GitCommitChangeSource(tempDir.toFile(), RepoCreator.SECOND_BRANCH);
+        DiffResult result = new Differ(local, upstream, new Mapper(), DiffOptions.defaults()).run();
+        assertEquals(patches.toString(), result.localCommitId());
+        assertEquals(RepoCreator.SECOND_BRANCH, result.upstreamCommitId());
+        assertEqualsAsSet(Set.of("fourth.txt"), result.different());
+        assertEqualsAsSet(Set.of("second.txt"), result.upstreamOnly());
+        assertEqualsAsSet(Set.of("third.txt", "first.java"), result.same());
+        assertEqualsAsSet(Set.of("sixth.txt", "fifth.txt"), result.localOnly());
+    }
+
+    @Test
+    void runWithWorkingTree(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        // the same changes as RepoCreator.cherryPick(), but without committing them
+        creator.run("git", "cherry-pick", "--no-commit", RepoCreator.SECOND_BRANCH);
+        creator.run("git", "rm", "-f", "second.txt");
+        creator.writeToFile("fourth.txt", "something", "TestContent\n");
+        creator.writeToFile("fifth.txt", "something", "");
+        creator.writeToFile("sixth.txt", "something", "");
+        creator.run("git", "add", ".");
+
+        ChangeSource local = new WorkingTreeChangeSource(tempDir.toFile());
+        ChangeSource upstream = new GitCommitChangeSource(tempDir.toFile(), RepoCreator.SECOND_BRANCH);
+        DiffResult result = new Differ(local, upstream, new Mapper(), DiffOptions.defaults()).run();
+        assertEquals(WorkingTreeChangeSource.ID, result.localCommitId());
+        assertEqualsAsSet(Set.of("fourth.txt"), result.different());
+        assertEqualsAsSet(Set.of("second.txt"), result.upstreamOnly());
+        assertEqualsAsSet(Set.of("third.txt", "first.java"), result.same());
+        assertEqualsAsSet(Set.of("sixth.txt", "fifth.txt"), result.localOnly());
+    }
+
+    @Test
+    void pipelineStatsAreNullWithoutPipeline(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        Differ differ = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, RepoCreator.SECOND_BRANCH);
+        differ.run();
+        assertNull(differ.pipelineStats());
+    }
+
+    @Test
+    void binaryAndLargeFilesAreComparedByBlobId(@TempDir Path tempDir) throws IOException, InterruptedException {
+        RepoCreator creator = new RepoCreator(tempDir.toFile());
+        creator.create();
+        creator.run("git", "checkout", RepoCreator.SECOND_BRANCH);
+        writeBytes(tempDir, "same.bin", new byte[]{1, 0, 2});
+        writeBytes(tempDir, "different.bin", new byte[]{1, 0, 3});
+        creator.writeToFile("large.txt", "x".repeat(100), "");
+        creator.run("git", "add", ".");
+        creator.run("git", "commit", "-m", "binary commit");
+        creator.run("git", "checkout", RepoCreator.MASTER_BRANCH);
+        writeBytes(tempDir, "same.bin", new byte[]{1, 0, 2});
+        writeBytes(tempDir, "different.bin", new byte[]{1, 0, 4});
+        creator.writeToFile("large.txt", "x".repeat(100), "");
+        creator.run("git", "add", ".");
+        creator.run("git", "commit", "-m", "binary commit");
+
+        DiffOptions options = new DiffOptions.Builder().maxFileSize(100).build();
+        Differ differ = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, RepoCreator.SECOND_BRANCH, new Mapper(), options);
+        DiffResult result = differ.run();
+        assertEqualsAsSet(Set.of("same.bin", "different.bin", "large.txt"), result.binary());
+        assertEqualsAsSet(Set.of("same.bin", "large.txt"), result.same());
+        assertEqualsAsSet(Set.of("different.bin"), result.different());
+
+        // abbreviated blob IDs of the `index` lines
+        Path patches = tempDir.resolve(".git/patches");
+        creator.run("git", "format-patch", "--binary", "-1", RepoCreator.MASTER_BRANCH, "-o", patches.toString());
+        ChangeSource local = new PatchDirectoryChangeSource(patches.toFile());
+        ChangeSource upstream = new GitCommitChangeSource(tempDir.toFile(), RepoCreator.SECOND_BRANCH);
+        result = new Differ(local, upstream, new Mapper(), options).run();
+        assertEqualsAsSet(Set.of("same.bin", "different.bin", "large.txt"), result.binary());
+        assertEqualsAsSet(Set.of("same.bin", "large.txt"), result.same());
+        assertEqualsAsSet(Set.of("different.bin"), result.different());
+
+        options = new DiffOptions.Builder().detectBinary(false).maxFileSize(Long.MAX_VALUE).build();
+        result = new Differ(tempDir.toFile(), RepoCreator.MASTER_BRANCH, RepoCreator.SECOND_BRANCH, new Mapper(), options).run();
+        assertEqualsAsSet(Set.of(), result.binary());
+    }
+
+    private void writeBytes(Path dir, String filename, byte[] content) throws IOException {
+        Files.write(dir.resolve(filename), content);
+    }
+
     private void assertEqualsAsSet(Set<String> expected, List<String> actual) {
         assertEquals(expected, new HashSet<>(actual));
     }
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class LineKernelTest {
+    private final LineKernel scalar = LineKernel.scalar();
+
+    @Test
+    void bestIsVectorizedIfModuleIsAvailable() {
+        assumeTrue(LineKernels.isVectorModuleAvailable());
+        assertThat(LineKernel.best(), not(sameInstance(scalar)));
+    }
+
+    @Test
+    void vectorAndScalarFingerprintsAreTheSame() {
+        assumeTrue(LineKernels.isVectorModuleAvailable());
+        LineKernel vector = LineKernel.best();
+        Random random = new Random(42);
+        byte[] buffer = new byte[300];
+        random.nextBytes(buffer);
+        for (int offset = 0; offset != 5; ++offset) {
+            for (int length = 0; length != 290; ++length) {
+                assertThat(vector.fingerprint(buffer, offset, length), is(scalar.fingerprint(buffer, offset, length)));
+            }
+        }
+    }
+
+    @Test
+    void rangeEquals() {
+        for (LineKernel kernel : List.of(scalar, LineKernel.best())) {
+            byte[] a = "a somewhat longer line than a single vector, abcdefghijklmnopqrstuvwxyz0123456789".getBytes(StandardCharsets.UTF_8);
+            byte[] b = ("xx" + new String(a, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+            assertThat(kernel.rangeEquals(a, 0, b, 2, a.length), is(true));
+            assertThat(kernel.rangeEquals(a, 1, b, 3, a.length - 1), is(true));
+            b[b.length - 1] = 'X';
+            assertThat(kernel.rangeEquals(a, 0, b, 2, a.length), is(false));
+            assertThat(kernel.rangeEquals(a, 0, b, 2, a.length - 1), is(true));
+            assertThat(kernel.rangeEquals(a, 0, b, 0, 0), is(true));
+        }
+    }
+
+    @Test
+    void fingerprintsDependOnLength() {
+        byte[] zeros = new byte[4];
+        assertThat(scalar.fingerprint(zeros, 0, 1), not(scalar.fingerprint(zeros, 0, 2)));
+    }
+
+    @Test
+    void hashedLines() {
+        List<HashedLine> lines = HashedLine.of(List.of("+ same", "- other", "+ same", "", "+++ b/file", "+", "+x\r"), LineKernel.best());
+        assertThat(lines.size(), is(7));
+        assertThat(lines.get(0), is(lines.get(2)));
+        assertThat(lines.get(0).hashCode(), is(lines.get(2).hashCode()));
+        assertThat(lines.get(0), not(lines.get(1)));
+        assertThat(lines.get(3).toString(), is(""));
+        assertThat(lines.get(0).isChangeLine(), is(true));
+        assertThat(lines.get(1).isChangeLine(), is(true));
+        assertThat(lines.get(3).isChangeLine(), is(false));
+        assertThat(lines.get(4).isChangeLine(), is(false));
+        assertThat(lines.get(5).isChangeLine(), is(true));
+        assertThat(lines.get(6).isChangeLine(), is(false));
+    }
+}
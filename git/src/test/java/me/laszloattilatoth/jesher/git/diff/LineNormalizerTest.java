@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.git.diff;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class LineNormalizerTest {
+
+    private List<String> normalize(LineNormalizer normalizer, String filename, String... lines) {
+        return normalizer.normalize(filename, Stream.of(lines)).toList();
+    }
+
+    @Test
+    void leadingWhitespaceOfJavaFiles() {
+        LineNormalizer n = new LeadingWhitespaceNormalizer();
+        assertThat(normalize(n, "A.java", "+\t  int x;", "-    int y;", "     ctx"), is(List.of("+ int x;", "- int y;", "     ctx")));
+        assertThat(normalize(n, "a.txt", "+\t  int x;"), is(List.of("+\t  int x;")));
+    }
+
+    @Test
+    void allWhitespace() {
+        LineNormalizer n = ComparisonMode.IGNORE_ALL_WHITESPACE.normalizer();
+        assertThat(normalize(n, "a.txt", "+ a  b\tc ", "-x", " c o n t e x t", "@@ -1,2 +1,2 @@", ""),
+                is(List.of("+ abc", "- x", "  context", "@@ -1,2 +1,2 @@", "")));
+        assertThat(normalize(n, "a.txt", "+    ++i;", "-    -1,", "+++ b/a.txt", "--- a/a.txt"),
+                is(List.of("+ ++i;", "- -1,", "+++ b/a.txt", "--- a/a.txt")));
+    }
+
+    @Test
+    void blankLines() {
+        LineNormalizer n = ComparisonMode.IGNORE_BLANK_LINES.normalizer();
+        assertThat(normalize(n, "a.txt", "+", "- \t", "+x", " ", "", "+++ b/a.txt", "--- a/a.txt"),
+                is(List.of("+x", " ", "", "+++ b/a.txt", "--- a/a.txt")));
+    }
+
+    @Test
+    void javaImportsAreSortedPerHunk() {
+        LineNormalizer n = ComparisonMode.SORT_JAVA_IMPORTS.normalizer();
+        assertThat(normalize(n, "A.java",
+                        "@@ -1,5 +1,5 @@",
+                        "-import b.B;",
+                        " import c.C;",
+                        "+import  a.A;",
+                        "-import d.D;",
+                        "+import b.B;",
+                        " class A {",
+                        "@@ -10,1 +10,1 @@",
+                        "+import static x.Y.z;"),
+                is(List.of(
+                        "@@ -1,5 +1,5 @@",
+                        " class A {",
+                        "-import d.D;",
+                        "+import a.A;",
+                        "@@ -10,1 +10,1 @@",
+                        "+import static x.Y.z;")));
+    }
+
+    @Test
+    void javaImportsOfOtherFilesAreKept() {
+        LineNormalizer n = ComparisonMode.SORT_JAVA_IMPORTS.normalizer();
+        assertThat(normalize(n, "a.py", "+import b", "+import a"), is(List.of("+import b", "+import a")));
+    }
+
+    @Test
+    void optionsChainNormalizersInOrder() {
+        LineNormalizer custom = (filename, lines) -> lines.map(String::toUpperCase);
+        DiffOptions options = new DiffOptions.Builder()
+                .comparisonModes(ComparisonMode.IGNORE_BLANK_LINES, ComparisonMode.SORT_JAVA_IMPORTS)
+                .addNormalizer(custom)
+                .build();
+        assertThat(options.normalizers().size(), is(4));
+        assertThat(options.normalizers().get(1), is(ComparisonMode.SORT_JAVA_IMPORTS.normalizer()));
+        assertThat(options.normalizers().get(2), is(ComparisonMode.IGNORE_BLANK_LINES.normalizer()));
+        assertThat(options.normalizers().get(3), is(custom));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.testsupport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * A stand-in of the `ssh` executable for `gerrit review`, to be configured as the SSH executable of `Gerrit`.
+ * <p>
+ * Each invocation is recorded with its arguments and, for `gerrit review`, its standard input (the review JSON).
+ * The other invocations (e.g. starting or stopping a ControlMaster) are recorded and succeed immediately.
+ * Reviews can be delayed and failed to test retries and benchmark throughput offline.
+ */
+public class FakeGerritReviewCommand {
+    public static final String FAILURE_MESSAGE = "injected failure";
+
+    /**
+     * A recorded invocation.
+     *
+     * @param args  The arguments of `ssh`
+     * @param input The standard input, empty if it's not a review
+     */
+    public record Invocation(List<String> args, String input) {
+        public boolean isReview() {
+            return args.contains("review");
+        }
+
+        /**
+         * @return the change and revision, the last two arguments of `gerrit review`
+         */
+        public String patchSet() {
+            return args.get(args.size() - 2) + "," + args.get(args.size() - 1);
+        }
+    }
+
+    private final Path directory;
+    private final Path executable;
+
+    private FakeGerritReviewCommand(Path directory, Duration latency, int failFirst, double failureRate, int exitCode) throws IOException {
+        this.directory = directory;
+        this.executable = directory.resolve("ssh");
+        Files.createDirectories(directory.resolve("calls"));
+        Files.createDirectories(directory.resolve("failures"));
+        // mkdir is atomic, so concurrent invocations fail exactly the first failFirst reviews
+        Files.writeString(executable, String.format(Locale.ROOT, """
+                #!/bin/sh
+                dir='%s'
+                id=$(date +%%s%%N)-$$
+                printf '%%s\\n' "$@" > "$dir/calls/$id.args.tmp"
+                case "$*" in
+                  *" gerrit review "*) ;;
+                  *) mv "$dir/calls/$id.args.tmp" "$dir/calls/$id.args"; exit 0 ;;
+                esac
+                cat > "$dir/calls/$id.input"
+                mv "$dir/calls/$id.args.tmp" "$dir/calls/$id.args"
+                sleep %.3f
+                i=1
+                while [ $i -le %d ]; do
+                  if mkdir "$dir/failures/$i" 2>/dev/null; then echo '%s' >&2; exit %d; fi
+                  i=$((i + 1))
+                done
+                if awk -v seed=$$ 'BEGIN { srand(seed); exit !(rand() < %f) }'; then echo '%s' >&2; exit %d; fi
+                exit 0
+                """, directory, latency.toMillis() / 1000.0, failFirst, FAILURE_MESSAGE, exitCode, failureRate, FAILURE_MESSAGE, exitCode));
+        if (!executable.toFile().setExecutable(true))
+            throw new IOException("Cannot make executable: " + executable);
+    }
+
+    public Path executable() {
+        return executable;
+    }
+
+    /**
+     * @return the finished or still running invocations, in the order of their start.
+     */
+    public List<Invocation> invocations() throws IOException {
+        List<Invocation> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory.resolve("calls"))) {
+            for (Path args : files.filter(f -> f.toString().endsWith(".args")).sorted().toList()) {
+                String name = args.getFileName().toString();
+                Path input = args.resolveSibling(name.substring(0, name.length() - ".args".length()) + ".input");
+                result.add(new Invocation(Files.readAllLines(args, StandardCharsets.UTF_8),
+                        Files.exists(input) ? Files.readString(input, StandardCharsets.UTF_8) : ""));
+            }
+        }
+        return result;
+    }
+
+    public List<Invocation> reviews() throws IOException {
+        return invocations().stream().filter(Invocation::isReview).toList();
+    }
+
+    public static class Builder {
+        private final Path directory;
+        private Duration latency = Duration.ZERO;
+        private int failFirst = 0;
+        private double failureRate = 0;
+        private int exitCode = 1;
+
+        /**
+         * @param directory The directory of the script and the recorded invocations
+         */
+        public Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        public FakeGerritReviewCommand build() throws IOException {
+            return new FakeGerritReviewCommand(directory, latency, failFirst, failureRate, exitCode);
+        }
+
+        /**
+         * Delays each review, with millisecond precision.
+         */
+        public Builder latency(Duration latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        public Builder failFirst(int failFirst) {
+            this.failFirst = failFirst;
+            return this;
+        }
+
+        public Builder failureRate(double failureRate) {
+            this.failureRate = failureRate;
+            return this;
+        }
+
+        /**
+         * The exit code of the failed reviews, 1 by default.
+         */
+        public Builder exitCode(int exitCode) {
+            this.exitCode = exitCode;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.testsupport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process stand-in of the Gerrit REST API on {@link HttpServer}.
+ * <p>
+ * The responses come from routes matched against the path and query (without the leading `/` and the `a/` prefix
+ * of authenticated calls), and are sent with the `)]}'` prefix, an ETag, and gzip-compressed if accepted.
+ * A matching `If-None-Match` is answered with 304. Unmatched requests get 404.
+ * <p>
+ * Latency and errors can be injected to benchmark or test the clients offline.
+ */
+public class FakeGerritServer implements AutoCloseable {
+    public static final String XSSI_PREFIX = ")]}'\n";
+
+    /**
+     * A received request.
+     *
+     * @param pathAndQuery The path and query without the leading `/` and the `a/` prefix
+     */
+    public record Request(String method, String pathAndQuery, boolean authenticated, String ifNoneMatch) {
+    }
+
+    static {
+        // the headers and the body are written separately, so Nagle's algorithm would delay each response by ~40 ms;
+        // it's read once when the first server is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private record Route(Pattern pattern, Function<MatchResult, String> body) {
+    }
+
+    private final List<Route> routes;
+    private final long minLatencyNanos;
+    private final long maxLatencyNanos;
+    private final double errorRate;
+    private final int failFirst;
+    private final int errorStatus;
+    private final Random random;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger received = new AtomicInteger();
+
+    private FakeGerritServer(List<Route> routes, Duration minLatency, Duration maxLatency, double errorRate, int failFirst,
+                             int errorStatus, long seed, int threads) throws IOException {
+        this.routes = routes;
+        this.minLatencyNanos = minLatency.toNanos();
+        this.maxLatencyNanos = maxLatency.toNanos();
+        this.errorRate = errorRate;
+        this.failFirst = failFirst;
+        this.errorStatus = errorStatus;
+        this.random = new Random(seed);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the URL of the server ending with `/`, e.g. for `Gerrit.Builder` with `useHttps(false)` and `webPort(port())`.
+     */
+    public String baseUrl() {
+        return String.format("http://127.0.0.1:%d/", port());
+    }
+
+    public List<Request> requests() {
+        return List.copyOf(requests);
+    }
+
+    public int requestCount() {
+        return requests.size();
+    }
+
+    public void clearRequests() {
+        requests.clear();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String pathAndQuery = exchange.getRequestURI().getRawPath().substring(1);
+            if (exchange.getRequestURI().getRawQuery() != null)
+                pathAndQuery += "?" + exchange.getRequestURI().getRawQuery();
+            boolean authenticated = pathAndQuery.startsWith("a/");
+            if (authenticated)
+                pathAndQuery = pathAndQuery.substring(2);
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            requests.add(new Request(exchange.getRequestMethod(), pathAndQuery, authenticated, ifNoneMatch));
+
+            sleep();
+            if (shouldFail()) {
+                send(exchange, errorStatus, "Injected failure", false);
+                return;
+            }
+
+            String body = route(pathAndQuery);
+            if (body == null) {
+                send(exchange, 404, "Not found", false);
+                return;
+            }
+            String etag = String.format("\"%08x\"", body.hashCode());
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            send(exchange, 200, XSSI_PREFIX + body, acceptEncoding != null && acceptEncoding.contains("gzip"));
+        }
+    }
+
+    private String route(String pathAndQuery) {
+        for (Route route : routes) {
+            Matcher matcher = route.pattern().matcher(pathAndQuery);
+            String body = matcher.matches() ? route.body().apply(matcher.toMatchResult()) : null;
+            if (body != null)
+                return body;
+        }
+        return null;
+    }
+
+    private void sleep() {
+        long latency;
+        synchronized (random) {
+            latency = minLatencyNanos + (maxLatencyNanos > minLatencyNanos ? (long) (random.nextDouble() * (maxLatencyNanos - minLatencyNanos)) : 0);
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean shouldFail() {
+        if (received.incrementAndGet() <= failFirst)
+            return true;
+        synchronized (random) {
+            return errorRate > 0 && random.nextDouble() < errorRate;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body, boolean gzip) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (gzip) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream output = new GZIPOutputStream(compressed)) {
+                output.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * A synthetic `related` response of a stack of changes, each on top of the previous one,
+     * the change numbers starting from `firstChange`, all at revision 1.
+     */
+    public static String relatedStack(int firstChange, int count) {
+        StringBuilder result = new StringBuilder("{\"changes\":[");
+        for (int i = count - 1; i >= 0; --i) {
+            int change = firstChange + i;
+            result.append(String.format("{\"project\":\"project\",\"change_id\":\"I%040d\","
+                            + "\"commit\":{\"commit\":\"%040x\",\"parents\":[{\"commit\":\"%040x\"}],\"author\":{\"name\":\"Author\"},\"subject\":\"Change %d\"},"
+                            + "\"_change_number\":%d,\"_revision_number\":1,\"_current_revision_number\":1,\"status\":\"NEW\"}",
+                    change, change, change - 1, change, change));
+            if (i != 0)
+                result.append(',');
+        }
+        return result.append("]}").toString();
+    }
+
+    /**
+     * A synthetic change with the given number of revisions, the last one being the current.
+     */
+    public static String change(int number, int revisions) {
+        StringBuilder result = new StringBuilder(String.format("{\"id\":\"project~master~I%040d\",\"project\":\"project\","
+                + "\"branch\":\"master\",\"change_id\":\"I%040d\",\"subject\":\"Change %d\",\"status\":\"NEW\","
+                + "\"updated\":\"2022-01-01 00:00:00.000000000\",\"_number\":%d,\"current_revision\":\"%040x\",\"revisions\":{",
+                number, number, number, number, (long) number * 1000 + revisions));
+        for (int i = 1; i <= revisions; ++i) {
+            result.append(String.format("\"%040x\":{\"kind\":\"REWORK\",\"_number\":%d,\"ref\":\"refs/changes/%02d/%d/%d\"}",
+                    (long) number * 1000 + i, i, number % 100, number, i));
+            if (i != revisions)
+                result.append(',');
+        }
+        return result.append("}}").toString();
+    }
+
+    public static class Builder {
+        private final List<Route> routes = new ArrayList<>();
+        private Duration minLatency = Duration.ZERO;
+        private Duration maxLatency = Duration.ZERO;
+        private double errorRate = 0;
+        private int failFirst = 0;
+        private int errorStatus = 503;
+        private long seed = 42;
+        private int threads = 16;
+
+        public FakeGerritServer start() throws IOException {
+            return new FakeGerritServer(List.copyOf(routes), minLatency, maxLatency, errorRate, failFirst, errorStatus, seed, threads);
+        }
+
+        /**
+         * Serves the JSON returned by the function for the requests matching the regex, e.g.
+         * `changes/(\d+)/revisions/(\d+)/related`. The routes are checked in order, and a null JSON
+         * passes the request to the next one; if none of them serves it, the answer is 404.
+         */
+        public Builder route(String pathRegex, Function<MatchResult, String> json) {
+            routes.add(new Route(Pattern.compile(pathRegex), json));
+            return this;
+        }
+
+        public Builder route(String pathRegex, String json) {
+            return route(pathRegex, match -> json);
+        }
+
+        /**
+         * Serves {@link #relatedStack(int, int)} for the `related` endpoint of each change of the stack.
+         */
+        public Builder relatedStack(int firstChange, int count) {
+            String json = FakeGerritServer.relatedStack(firstChange, count);
+            return route("changes/(\\d+)/revisions/\\d+/related", match -> {
+                int change = Integer.parseInt(match.group(1));
+                return change >= firstChange && change < firstChange + count ? json : null;
+            });
+        }
+
+        public Builder latency(Duration latency) {
+            return latency(latency, latency);
+        }
+
+        /**
+         * Delays each response by a uniformly distributed random time between the limits.
+         */
+        public Builder latency(Duration min, Duration max) {
+            this.minLatency = min;
+            this.maxLatency = max;
+            return this;
+        }
+
+        /**
+         * Answers the given ratio of the requests (after the {@link #failFirst(int)} ones) by the error status.
+         */
+        public Builder errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        public Builder failFirst(int failFirst) {
+            this.failFirst = failFirst;
+            return this;
+        }
+
+        public Builder errorStatus(int errorStatus) {
+            this.errorStatus = errorStatus;
+            return this;
+        }
+
+        /**
+         * The seed of the random latencies and errors, for repeatable runs.
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * The number of requests served at the same time.
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+    }
+}
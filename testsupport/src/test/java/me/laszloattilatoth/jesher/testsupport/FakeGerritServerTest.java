@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2022 Laszlo Attila Toth
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.testsupport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+class FakeGerritServerTest {
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private HttpResponse<String> get(FakeGerritServer server, String path, String etag) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(server.baseUrl() + path));
+        if (etag != null)
+            request.header("If-None-Match", etag);
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void routes() throws IOException, InterruptedException {
+        try (FakeGerritServer server = new FakeGerritServer.Builder()
+                .relatedStack(10, 3)
+                .route("changes/(\\d+)", match -> FakeGerritServer.change(Integer.parseInt(match.group(1)), 2))
+                .start()) {
+            HttpResponse<String> related = get(server, "a/changes/11/revisions/1/related", null);
+            assertThat(related.statusCode(), is(200));
+            assertThat(related.body(), startsWith(FakeGerritServer.XSSI_PREFIX + "{\"changes\":["));
+            assertThat(related.body(), containsString("\"_change_number\":12"));
+            assertThat(get(server, "changes/13/revisions/1/related", null).statusCode(), is(404));
+            assertThat(get(server, "changes/7", null).body(), containsString("\"_number\":7"));
+
+            assertThat(server.requestCount(), is(3));
+            assertThat(server.requests().get(0), is(new FakeGerritServer.Request("GET", "changes/11/revisions/1/related", true, null)));
+        }
+    }
+
+    @Test
+    void notModified() throws IOException, InterruptedException {
+        try (FakeGerritServer server = new FakeGerritServer.Builder().route("config/server/version", "\"3.5.0\"").start()) {
+            HttpResponse<String> response = get(server, "config/server/version", null);
+            String etag = response.headers().firstValue("ETag").orElseThrow();
+            assertThat(get(server, "config/server/version", etag).statusCode(), is(304));
+        }
+    }
+
+    @Test
+    void errorInjection() throws IOException, InterruptedException {
+        try (FakeGerritServer server = new FakeGerritServer.Builder().route(".*", "{}").failFirst(2).errorStatus(500).start()) {
+            assertThat(get(server, "changes/", null).statusCode(), is(500));
+            assertThat(get(server, "changes/", null).statusCode(), is(500));
+            assertThat(get(server, "changes/", null).statusCode(), is(200));
+        }
+    }
+
+    @Test
+    void reviewCommand(@TempDir Path tempDir) throws IOException, InterruptedException {
+        FakeGerritReviewCommand command = new FakeGerritReviewCommand.Builder(tempDir).failFirst(1).exitCode(3).build();
+        assertThat(run(command, "{\"message\":\"first\"}"), is(3));
+        assertThat(run(command, "{\"message\":\"second\"}"), is(0));
+        assertThat(new ProcessBuilder(command.executable().toString(), "-O", "exit", "host").start().waitFor(), is(0));
+
+        List<FakeGerritReviewCommand.Invocation> reviews = command.reviews();
+        assertThat(command.invocations().size(), is(3));
+        assertThat(reviews.size(), is(2));
+        assertThat(reviews.get(1).input(), is("{\"message\":\"second\"}"));
+        assertThat(reviews.get(1).patchSet(), is("12,3"));
+    }
+
+    private static int run(FakeGerritReviewCommand command, String input) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command.executable().toString(), "-p", "29418", "host", "gerrit", "review", "--json", "12", "3").start();
+        process.getOutputStream().write(input.getBytes(StandardCharsets.UTF_8));
+        process.getOutputStream().close();
+        return process.waitFor();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cancels a task tree, e.g. a job superseded by a newer one, see {@link Task#setCancellationToken(CancellationToken)}.
+ * <p>
+ * The tasks of a cancelled token which are not started yet are skipped, the running ones are interrupted
+ * and can also poll {@link Task#isCancelled()}. The skipped tasks are finished as usual, so
+ * {@link ThreadPool#waitAllTask()} and the {@link TaskGroup} waits return when the rest of the tree is done.
+ * A child token is cancelled with its parent, so a subtree or a single task can be cancelled, or can have
+ * a shorter deadline, on its own. The parent references its children until either of them is cancelled.
+ * <p>
+ * A running task is only registered at its own token, without locking, and the cancellation is
+ * propagated down to the child tokens instead.
+ */
+public final class CancellationToken {
+    private final CancellationToken parent;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Set<CancellationToken> children = ConcurrentHashMap.newKeySet();
+    private final Set<Run> running = ConcurrentHashMap.newKeySet();
+    private volatile ScheduledFuture<?> deadline;
+
+    public CancellationToken() {
+        this(null);
+    }
+
+    private CancellationToken(CancellationToken parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return a token cancelled after the timeout
+     */
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken().scheduleCancel(timeout);
+    }
+
+    /**
+     * @return a token cancelled with this one
+     */
+    public CancellationToken child() {
+        CancellationToken child = new CancellationToken(this);
+        children.add(child);
+        // a concurrent cancel either sees the child or is seen here
+        if (isCancelled())
+            child.cancel();
+        return child;
+    }
+
+    /**
+     * @return a token cancelled with this one, or after the timeout, whichever is sooner
+     */
+    public CancellationToken child(Duration timeout) {
+        return child().scheduleCancel(timeout);
+    }
+
+    private CancellationToken scheduleCancel(Duration timeout) {
+        deadline = Timer.EXECUTOR.schedule(this::cancel, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        if (isCancelled())
+            deadline.cancel(false);
+        return this;
+    }
+
+    public void cancel() {
+        if (!cancelled.compareAndSet(false, true))
+            return;
+
+        ScheduledFuture<?> deadline = this.deadline;
+        if (deadline != null)
+            deadline.cancel(false);
+        for (Run run : running)
+            run.interrupt();
+        for (CancellationToken child : children)
+            child.cancel();
+        children.clear();
+        if (parent != null)
+            parent.children.remove(this);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public void throwIfCancelled() {
+        if (isCancelled())
+            throw new CancellationException();
+    }
+
+    /**
+     * Registers the current thread to be interrupted on cancellation.
+     *
+     * @return the registration to {@link Run#exit()}, or null, without registering, if already cancelled
+     */
+    Run enter() {
+        Run run = new Run(Thread.currentThread());
+        running.add(run);
+        // a concurrent cancel either sees the run or is seen here
+        if (!isCancelled())
+            return run;
+        run.exit();
+        return null;
+    }
+
+    /**
+     * A task running on a thread. The cancellation and the end of the run race for the state, so a thread
+     * is never interrupted after its task returned.
+     */
+    final class Run {
+        private static final int RUNNING = 0;
+        private static final int INTERRUPTING = 1;
+        private static final int INTERRUPTED = 2;
+        private static final int EXITED = 3;
+
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+
+        private Run(Thread thread) {
+            this.thread = thread;
+        }
+
+        private void interrupt() {
+            if (state.compareAndSet(RUNNING, INTERRUPTING)) {
+                thread.interrupt();
+                state.set(INTERRUPTED);
+            }
+        }
+
+        /**
+         * Unregisters the thread, and clears the interrupt of the cancellation, which may arrive after
+         * the task stopped polling.
+         */
+        void exit() {
+            running.remove(this);
+            if (state.compareAndSet(RUNNING, EXITED))
+                return;
+            while (state.get() == INTERRUPTING)
+                Thread.onSpinWait();
+            Thread.interrupted();
+        }
+    }
+
+    private static class Timer {
+        static final ScheduledThreadPoolExecutor EXECUTOR = create();
+
+        private static ScheduledThreadPoolExecutor create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "jesher-cancellation-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+}
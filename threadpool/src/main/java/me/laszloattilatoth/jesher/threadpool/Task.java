@@ -17,11 +17,45 @@
 package me.laszloattilatoth.jesher.threadpool;
 
 import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class Task implements Runnable {
+    static final int NEW = 0;
+    static final int REGISTERED = 1;
+    static final int FINISHED = 2;
+
     private final AtomicBoolean completed = new AtomicBoolean(false);
     private final WeakReference<ThreadPool> pool;
+    private volatile int priority = 0;
+    private volatile CancellationToken cancellationToken;
+
+    // the dependency tracking of ThreadPool.TaskManager, kept in the task instead of shared maps
+    final AtomicInteger state = new AtomicInteger(NEW);
+    final Queue<Task> nextTasks = new ConcurrentLinkedQueue<>();
+    final Queue<Task> postProcessors = new ConcurrentLinkedQueue<>();
+    /**
+     * The unfinished next tasks or post-processors, whichever are running.
+     */
+    final AtomicInteger pending = new AtomicInteger();
+    volatile ThreadPool.TaskManager taskManager;
+    // written before submitting the task, or by the thread finishing the last pending dependency
+    Task parent;
+    boolean postProcessorsStarted;
+    TaskGroup group;
+    /**
+     * Released when the task is finished, if it was admitted by a pool limiting its pending tasks.
+     */
+    Semaphore permit;
+    /**
+     * The token of the task, or the one inherited from the task it's started by.
+     */
+    volatile CancellationToken token;
 
     public Task(ThreadPool pool) {
         this.pool = new WeakReference<>(pool);
@@ -36,15 +70,85 @@ public abstract class Task implements Runnable {
         return this.pool.get();
     }
 
+    /**
+     * @return the priority of the task in a priority pool, see {@link ThreadPool#ofPriority(int, Duration, boolean)}
+     */
+    public int priority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority, which takes effect when the task is submitted. Higher runs sooner, 0 by default.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * The estimated time of the work gated by this task, i.e. of the task, its next tasks, and the
+     * post-processors of it and its ancestors waiting for them. A priority pool with the critical-path
+     * heuristic starts the tasks with the larger estimates sooner. 0 by default.
+     */
+    protected long estimatedCostNanos() {
+        return 0;
+    }
+
+    /**
+     * Sets the token cancelling the task and the tasks it starts, which takes effect when the task is added
+     * to the pool. Without it, the task inherits the token of the task it's started by. To keep cancelling
+     * a subtree with its ancestors, use a {@link CancellationToken#child()} of their token.
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * @return true if the token of the task is cancelled. A long-running task should poll it, as well as
+     * handle the interrupt of the cancellation.
+     */
+    public boolean isCancelled() {
+        CancellationToken token = this.token;
+        return token != null && token.isCancelled();
+    }
+
+    CancellationToken ownCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * @return the group of the task, inherited from the task it's started by, or null
+     */
+    protected TaskGroup group() {
+        return group;
+    }
+
     @Override
     public void run() {
         if (!pool().hasTask(this)) {
             // TODO: custom exception
             throw new RuntimeException("Not registered");
         }
+        ThreadPool outer = ThreadPool.CURRENT.get();
+        ThreadPool.CURRENT.set(pool());
+        CancellationToken token = this.token;
         try {
-            doRun();
+            if (token == null) {
+                doRun();
+            } else {
+                CancellationToken.Run run = token.enter();
+                if (run != null) {
+                    try {
+                        doRun();
+                    } finally {
+                        run.exit();
+                    }
+                }
+            }
+        } catch (CancellationException e) {
+            if (!isCancelled())
+                throw e;
         } finally {
+            ThreadPool.CURRENT.set(outer);
             completed.set(true);
             notifyPool();
         }
@@ -68,6 +172,13 @@ public abstract class Task implements Runnable {
         pool().addPostProcessor(r, this);
     }
 
+    /**
+     * Called when the task, its next tasks and its post-processors are all finished, right before
+     * its parent is notified.
+     */
+    void finished() {
+    }
+
     private void notifyPool() {
         pool().taskCompleted(this);
     }
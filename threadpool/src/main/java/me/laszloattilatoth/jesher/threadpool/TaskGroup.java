@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of task trees on a long-lived {@link ThreadPool}, e.g. one job of a service, which can be awaited
+ * without waiting for the other tasks of the pool or shutting it down.
+ * <p>
+ * The next tasks and the post-processors of a task belong to the group of that task. Further roots can be
+ * added from a running task by `group().addTask(...)`. The group can be reused after it's done.
+ */
+public class TaskGroup {
+    private final ThreadPool pool;
+    private final AtomicInteger remainingTasks = new AtomicInteger();
+
+    TaskGroup(ThreadPool pool) {
+        this.pool = pool;
+    }
+
+    public ThreadPool pool() {
+        return pool;
+    }
+
+    public void add(Runnable r) {
+        if (r instanceof Task)
+            addTask((Task) r);
+        else
+            addTask(new RunnableTask(r, pool));
+    }
+
+    public void addTask(Task t) {
+        pool.addTask(t, this);
+    }
+
+    public int remainingTaskCount() {
+        return remainingTasks.get();
+    }
+
+    public boolean isDone() {
+        return remainingTasks.get() == 0;
+    }
+
+    /**
+     * Waits until all the tasks of the group are finished.
+     */
+    public synchronized void await() throws InterruptedException {
+        while (!isDone())
+            wait();
+    }
+
+    /**
+     * @return false if the timeout elapsed before all the tasks of the group were finished
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isDone()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    void taskRegistered() {
+        remainingTasks.incrementAndGet();
+    }
+
+    /**
+     * The parent of a task is counted until it's finished, so the count cannot drop to 0 early.
+     */
+    void taskFinished() {
+        if (remainingTasks.decrementAndGet() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+}
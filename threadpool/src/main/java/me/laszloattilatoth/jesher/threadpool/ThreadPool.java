@@ -17,30 +17,181 @@
 package me.laszloattilatoth.jesher.threadpool;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ThreadPool {
     public static int CPU_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final Duration DEFAULT_AGING_INTERVAL = Duration.ofMillis(100);
     private final TaskManager taskManager = new TaskManager(this);
-    private final ThreadPoolExecutor executor;
+    private final ExecutorService executor;
+    private final int threadCount;
+    /**
+     * Limits the running tasks if the executor does not, null otherwise.
+     */
+    private final Semaphore permits;
+    private final boolean virtual;
+    private final ForkJoinPool forkJoinPool;
+    /**
+     * The ordering of the queued tasks of a priority pool, null otherwise.
+     */
+    private final PriorityOrder priorityOrder;
+    private final AtomicLong submissions = new AtomicLong();
+    /**
+     * The bound of the pending tasks added from outside of the pool, null if unbounded.
+     */
+    private volatile Admission admission;
+    /**
+     * The pool running a task on the current thread, if any.
+     */
+    static final ThreadLocal<ThreadPool> CURRENT = new ThreadLocal<>();
+
+    /**
+     * What {@link #addTask(Task)} does when the pool already has the maximum number of pending tasks.
+     */
+    public enum AdmissionPolicy {
+        /**
+         * Waits until a pending task is finished.
+         */
+        BLOCK,
+        /**
+         * Waits at most the given timeout, then throws {@link RejectedExecutionException}.
+         */
+        TIMED,
+        /**
+         * Throws {@link RejectedExecutionException} immediately.
+         */
+        FAIL_FAST
+    }
 
     public ThreadPool() {
         this(Math.max(1, CPU_THREADS));
     }
 
     public ThreadPool(int threads) {
-        this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+        this(Executors.newFixedThreadPool(threads), threads, null, false, null);
+    }
+
+    private ThreadPool(ExecutorService executor, int threadCount, Semaphore permits, boolean virtual, PriorityOrder priorityOrder) {
+        this.executor = executor;
+        this.threadCount = threadCount;
+        this.permits = permits;
+        this.virtual = virtual;
+        this.forkJoinPool = executor instanceof ForkJoinPool ? (ForkJoinPool) executor : null;
+        this.priorityOrder = priorityOrder;
+    }
+
+    /**
+     * Creates a pool running the queued tasks by priority, see {@link #ofPriority(int, Duration, boolean)},
+     * with the default aging interval and the critical-path heuristic.
+     */
+    public static ThreadPool ofPriority(int threads) {
+        return ofPriority(threads, DEFAULT_AGING_INTERVAL, true);
+    }
+
+    /**
+     * Creates a pool running the queued tasks by {@link Task#priority()} instead of the submission order.
+     * <p>
+     * A task waits at most `agingInterval` longer per priority level than a task submitted at the same time,
+     * so the low priority tasks are not starved: the queue is ordered by the submission time minus
+     * `priority * agingInterval`. With the critical-path heuristic, {@link Task#estimatedCostNanos()} is
+     * subtracted too, so the tasks gating the most remaining work (e.g. a long chain before a big
+     * post-processor) start first.
+     */
+    public static ThreadPool ofPriority(int threads, Duration agingInterval, boolean criticalPath) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+        // otherwise the first tasks are handed over to the new threads directly, bypassing the queue
+        executor.prestartAllCoreThreads();
+        return new ThreadPool(executor, threads, null, false, new PriorityOrder(agingInterval.toNanos(), criticalPath));
+    }
+
+    /**
+     * Creates a work-stealing pool for CPU-bound, fine-grained task trees. The tasks started by a task
+     * of the pool (e.g. its next tasks) are pushed to the local deque of its worker and run in LIFO order,
+     * so a subtree tends to stay on one worker, and the idle workers steal the oldest tasks of the others.
+     * The post-processors of a task run when its subtree is finished, like in the other pools.
+     */
+    public static ThreadPool ofWorkStealing(int parallelism) {
+        return new ThreadPool(new ForkJoinPool(parallelism), parallelism, null, false, null);
     }
 
+    /**
+     * Creates a pool for I/O-bound tasks (e.g. waiting for git or ssh processes), which runs each task
+     * on its own virtual thread, at most `maxConcurrency` at the same time. The tasks waiting for a permit
+     * hold only a parked virtual thread, so thousands of them can be in flight.
+     * <p>
+     * The virtual threads are looked up reflectively, as they are not available before Java 21;
+     * without them the tasks run on platform threads created on demand, see {@link #isVirtual()}.
+     */
+    public static ThreadPool ofVirtual(int maxConcurrency) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        boolean virtual = executor != null;
+        if (!virtual)
+            executor = Executors.newCachedThreadPool();
+        return new ThreadPool(executor, maxConcurrency, new Semaphore(maxConcurrency), virtual, null);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // before Java 21, or a preview feature which is not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Limits the pending tasks to `maxPending`, blocking the caller of {@link #addTask(Task)} when the limit is reached.
+     */
+    public ThreadPool limitPendingTasks(int maxPending) {
+        return limitPendingTasks(maxPending, AdmissionPolicy.BLOCK, Duration.ZERO);
+    }
+
+    /**
+     * Limits the tasks added from outside of the pool and not finished yet to `maxPending`, so a fast producer
+     * (e.g. walking a large history) cannot queue unbounded work. A task counts until it is finished,
+     * including its next tasks and post-processors, which are never limited themselves.
+     * The tasks added by a running task of the pool are not limited either, as waiting for a permit there
+     * could wait for the task itself.
+     *
+     * @param timeout the maximum wait of {@link AdmissionPolicy#TIMED}, ignored by the others
+     */
+    public ThreadPool limitPendingTasks(int maxPending, AdmissionPolicy policy, Duration timeout) {
+        if (maxPending < 1)
+            throw new IllegalArgumentException("maxPending must be positive");
+        admission = new Admission(new Semaphore(maxPending), Objects.requireNonNull(policy), timeout.toNanos());
+        return this;
+    }
+
+    /**
+     * @return the number of the tasks run at the same time
+     */
     public int threadCount() {
-        return executor.getCorePoolSize();
+        return threadCount;
+    }
+
+    /**
+     * @return true if the tasks run on virtual threads, see {@link #ofVirtual(int)}
+     */
+    public boolean isVirtual() {
+        return virtual;
     }
 
     public boolean has(Runnable r) {
@@ -62,8 +213,55 @@ public class ThreadPool {
     }
 
     public void addTask(Task t) {
-        taskManager.addTask(t);
-        executor.submit(t);
+        addTask(t, (TaskGroup) null);
+    }
+
+    void addTask(Task t, TaskGroup group) {
+        Semaphore permit = admit();
+        if (!taskManager.addTask(t, group, permit)) {
+            if (permit != null)
+                permit.release();
+            return;
+        }
+        try {
+            submitTask(t);
+        } catch (RuntimeException | Error e) {
+            taskManager.unregister(t);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the semaphore a permit is acquired from, or null if the task is not limited
+     */
+    private Semaphore admit() {
+        Admission admission = this.admission;
+        if (admission == null || CURRENT.get() == this)
+            return null;
+        boolean acquired;
+        try {
+            acquired = switch (admission.policy()) {
+                case BLOCK -> {
+                    admission.permits().acquire();
+                    yield true;
+                }
+                case TIMED -> admission.permits().tryAcquire(admission.timeoutNanos(), TimeUnit.NANOSECONDS);
+                case FAIL_FAST -> admission.permits().tryAcquire();
+            };
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a pending task to finish", e);
+        }
+        if (!acquired)
+            throw new RejectedExecutionException("Too many pending tasks");
+        return admission.permits();
+    }
+
+    /**
+     * Creates a group of tasks which can be awaited independently of the other tasks of the pool.
+     */
+    public TaskGroup createGroup() {
+        return new TaskGroup(this);
     }
 
     void add(Runnable r, Task previous) {
@@ -73,8 +271,11 @@ public class ThreadPool {
             addTask(new RunnableTask(r, this), previous);
     }
 
-    void addTask(Task t, Task previous) {
-        taskManager.addTask(t, previous);
+    /**
+     * @return false if the task is already registered
+     */
+    boolean addTask(Task t, Task previous) {
+        return taskManager.addTask(t, previous);
     }
 
     void addPostProcessor(Runnable r, Task currentTask) {
@@ -89,11 +290,18 @@ public class ThreadPool {
     }
 
     public void waitAllTask() throws InterruptedException {
+        awaitIdle();
+        shutdown();
+    }
+
+    /**
+     * Waits until all the tasks are finished, without shutting down the pool.
+     */
+    public void awaitIdle() throws InterruptedException {
         synchronized (taskManager) {
             while (taskManager.hasRemainingTask())
                 taskManager.wait();
         }
-        shutdown();
     }
 
     public void shutdown() throws InterruptedException {
@@ -106,136 +314,215 @@ public class ThreadPool {
     }
 
     void submitTask(Task t) {
-        executor.submit(t);
+        if (forkJoinPool != null && Thread.currentThread() instanceof ForkJoinWorkerThread worker && worker.getPool() == forkJoinPool)
+            ForkJoinTask.adapt(t).fork();
+        else if (priorityOrder != null)
+            executor.execute(new PrioritizedTask(t, priorityOrder.rank(t), submissions.getAndIncrement()));
+        else if (permits == null)
+            executor.submit(t);
+        else
+            executor.submit(() -> runWithPermit(t));
+    }
+
+    private record Admission(Semaphore permits, AdmissionPolicy policy, long timeoutNanos) {
+    }
+
+    private record PriorityOrder(long agingNanos, boolean criticalPath) {
+        /**
+         * @return the virtual submission time of the task, the smaller the sooner it runs
+         */
+        long rank(Task t) {
+            long rank = System.nanoTime() - t.priority() * agingNanos;
+            return criticalPath ? rank - t.estimatedCostNanos() : rank;
+        }
+    }
+
+    /**
+     * A queued task of a priority pool, submitted by {@link ExecutorService#execute(Runnable)},
+     * as the futures of `submit()` are not comparable.
+     */
+    private record PrioritizedTask(Task task, long rank, long sequence) implements Runnable, Comparable<PrioritizedTask> {
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // like submit(), the executor thread is kept
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int result = Long.compare(rank, other.rank);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The permit is acquired on the thread of the task, as the submitting one may hold a permit itself.
+     */
+    private void runWithPermit(Task t) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            // the pool is terminated by force
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            t.run();
+        } finally {
+            permits.release();
+        }
     }
 
-    private static class TaskManager {
-        private final Set<Task> tasks = new HashSet<>();
-        private final Set<Task> completedTasks = new HashSet<>();
-        private final Map<Task, Set<Task>> taskChildren = new HashMap<>();
-        private final Map<Task, Task> taskParent = new HashMap<>();
-        private final Map<Task, Set<Task>> taskPostProcessors = new HashMap<>();
+    /**
+     * Tracks the dependencies without a global lock: the state lives in the tasks themselves (see the fields
+     * of {@link Task}), a task waits for its next tasks, then for its post-processors by an atomic counter,
+     * and the one finishing the last dependency of a task carries on with that task.
+     * Only the counts of the remaining tasks of the pool and of the {@link TaskGroup}s are shared.
+     */
+    static class TaskManager {
+        private final AtomicInteger remainingTasks = new AtomicInteger();
         private final WeakReference<ThreadPool> pool;
 
         private TaskManager(ThreadPool pool) {
             this.pool = new WeakReference<>(pool);
-            this.taskChildren.put(null, new HashSet<>());
         }
 
-        public synchronized boolean hasTask(Task t) {
-            return tasks.contains(t);
+        public boolean hasTask(Task t) {
+            return t.taskManager == this && t.state.get() == Task.REGISTERED;
         }
 
-        public synchronized void addTask(Task t) {
-            addTaskNoSync(t, null);
+        public boolean addTask(Task t, TaskGroup group) {
+            return addTask(t, group, null);
         }
 
-        public synchronized void addTask(Task t, Task parent) {
-            addTaskNoSync(t, parent);
+        public boolean addTask(Task t, TaskGroup group, Semaphore permit) {
+            if (!register(t, null, group))
+                return false;
+            t.permit = permit;
+            return true;
         }
 
-        public void addTaskNoSync(Task t, Task parent) {
-            if (tasks.contains(t))
-                return;
+        public boolean addTask(Task t, Task parent) {
+            if (!register(t, parent, parent.group))
+                return false;
+            parent.nextTasks.add(t);
+            return true;
+        }
 
-            tasks.add(t);
-            taskChildren.put(t, new HashSet<>());
-            taskPostProcessors.put(t, new HashSet<>());
-            taskParent.put(t, parent);
-            taskChildren.get(parent).add(t);
+        private boolean register(Task t, Task parent, TaskGroup group) {
+            int state = t.state.get();
+            if (state == Task.REGISTERED || !t.state.compareAndSet(state, Task.REGISTERED))
+                return false;
+            t.taskManager = this;
+            t.parent = parent;
+            t.pending.set(0);
+            t.postProcessorsStarted = false;
+            t.group = group;
+            CancellationToken token = t.ownCancellationToken();
+            t.token = token != null || parent == null ? token : parent.token;
+            if (group != null)
+                group.taskRegistered();
+            remainingTasks.incrementAndGet();
+            return true;
         }
 
-        public synchronized void addPostProcessorTask(Task t, Task currentTask) {
-            taskPostProcessors.get(currentTask).add(t);
+        public void addPostProcessorTask(Task t, Task currentTask) {
+            currentTask.postProcessors.add(t);
         }
 
-        synchronized void taskCompleted(Task t) {
-            completedTasks.add(t);
-            if (hasChildren(t)) {
-                startNextTasks(t);
-            } else if (hasPostProcessors(t)) {
-                startPostProcessorTasks(t);
-            } else {
+        void taskCompleted(Task t) {
+            if (!startNextTasks(t) && !startPostProcessorTasks(t))
                 finishTask(t);
-            }
+        }
 
-            if (!hasRemainingTask())
-                notifyAll();
+        private boolean startNextTasks(Task t) {
+            return start(t, drain(t.nextTasks));
         }
 
-        private void startNextTasks(Task t) {
-            for (Task followingTask : taskChildren.get(t)) {
-                Objects.requireNonNull(pool.get()).submitTask(followingTask);
-            }
+        private boolean startPostProcessorTasks(Task t) {
+            t.postProcessorsStarted = true;
+            List<Task> postProcessors = drain(t.postProcessors);
+            postProcessors.removeIf(pp -> !register(pp, t, t.group));
+            return start(t, postProcessors);
         }
 
-        private void startPostProcessorTasks(Task t) {
-            for (Task pp : taskPostProcessors.get(t)) {
-                addTaskNoSync(pp, t);
-                Objects.requireNonNull(pool.get()).submitTask(pp);
-            }
+        /**
+         * The counter is set before the first submit, as the tasks may finish right after it.
+         */
+        private boolean start(Task t, List<Task> tasks) {
+            if (tasks.isEmpty())
+                return false;
+            t.pending.set(tasks.size());
+            ThreadPool threadPool = Objects.requireNonNull(pool.get());
+            for (Task task : tasks)
+                threadPool.submitTask(task);
+            return true;
         }
 
-        private void finishTask(Task t) {
-            if (!completedTasks.contains(t))
-                return;
-            tasks.remove(t);
-            completedTasks.remove(t);
-            Task parent = t;
-
-            while (taskParent.containsKey(parent)) {
-                Task current = parent;
-                parent = taskParent.get(current);
-                taskParent.remove(current);
-                Set<Task> pps = taskPostProcessors.get(current);
-                taskPostProcessors.remove(current);
-                assert taskChildren.get(current).size() == 0;
-                taskChildren.remove(current);
-                taskChildren.get(parent).remove(current);
-
-                if (parent == null)
-                    break;
-
-                Set<Task> postProcessors = taskPostProcessors.get(parent);
-
-                boolean wasPostProcessorTask = postProcessors.contains(current);
-
-                if (wasPostProcessorTask) {
-                    postProcessors.remove(current);
-                }
+        private static List<Task> drain(Queue<Task> queue) {
+            List<Task> result = new ArrayList<>();
+            for (Task task; (task = queue.poll()) != null; )
+                result.add(task);
+            return result;
+        }
 
-                if (hasChildren(parent)) {
-                    // still have submitted tasks, exit from loop to avoid check of postprocessors
-                    // in current or parent tasks
-                    break;
+        /**
+         * Finishes the task and the ancestors whose last dependency it was. The count of the remaining tasks
+         * cannot drop to 0 early, as the unfinished parent is still counted.
+         */
+        private void finishTask(Task t) {
+            while (true) {
+                t.finished();
+                Task parent = t.parent;
+                t.parent = null;
+                t.state.set(Task.FINISHED);
+                if (t.group != null)
+                    t.group.taskFinished();
+                if (t.permit != null) {
+                    t.permit.release();
+                    t.permit = null;
                 }
-
-                if (!wasPostProcessorTask) {
-                    // started by startNextTasks(), and no further sibling nextTask
-                    if (hasPostProcessors(parent)) {
-                        startPostProcessorTasks(parent);
-                        break;
-                    } else {
-                        tasks.remove(parent);
-                        completedTasks.remove(parent);
+                if (remainingTasks.decrementAndGet() == 0) {
+                    synchronized (this) {
+                        notifyAll();
                     }
-                } else {
-                    tasks.remove(parent);
-                    completedTasks.remove(parent);
                 }
-            }
-        }
 
-        private boolean hasChildren(Task t) {
-            return taskChildren.get(t).size() > 0;
+                if (parent == null || parent.pending.decrementAndGet() != 0)
+                    return;
+                // the last next task or post-processor of the parent is finished
+                if (!parent.postProcessorsStarted && startPostProcessorTasks(parent))
+                    return;
+                t = parent;
+            }
         }
 
-        private boolean hasPostProcessors(Task t) {
-            return taskPostProcessors.get(t).size() > 0;
+        /**
+         * Reverts the registration of a task without dependencies which could not be submitted,
+         * e.g. because the pool is shut down.
+         */
+        void unregister(Task t) {
+            TaskGroup group = t.group;
+            Semaphore permit = t.permit;
+            t.group = null;
+            t.permit = null;
+            t.state.set(Task.NEW);
+            if (group != null)
+                group.taskFinished();
+            if (permit != null)
+                permit.release();
+            if (remainingTasks.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
         }
 
         public boolean hasRemainingTask() {
-            return tasks.size() > 0;
+            return remainingTasks.get() > 0;
         }
     }
 }
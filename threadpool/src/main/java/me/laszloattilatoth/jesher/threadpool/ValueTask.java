@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A task computing a value, which is reduced with the values of its child value tasks when its subtree
+ * is finished, e.g. for a parallel map-reduce over a task tree without shared mutable state.
+ * <p>
+ * The children added by {@link #addNextValueTask(ValueTask)} run after this task, like next tasks, and hand
+ * their final values over through a lock-free queue. When all of them and the post-processors are finished,
+ * {@link #reduce(Object, List)} combines the values, and the result completes {@link #result()}.
+ * If the task, a child or the reduction throws, the result and the results of the ancestors complete
+ * exceptionally. A cancelled task completes its result with a {@link CancellationException}, as its
+ * subtree may be skipped.
+ *
+ * @param <T> The type of the value
+ */
+public abstract class ValueTask<T> extends Task {
+    /**
+     * Stands for null in the queue of the child values.
+     */
+    private static final Object NULL = new Object();
+
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final Queue<Object> childValues = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private ValueTask<T> valueParent;
+    private T value;
+
+    public ValueTask(ThreadPool pool) {
+        super(pool);
+    }
+
+    /**
+     * @return the value of this task, before the reduction
+     */
+    protected abstract T compute();
+
+    /**
+     * Combines the value of this task with the final values of its child value tasks. Returns the value
+     * of this task by default.
+     *
+     * @param childValues The values in the order the children finished
+     */
+    protected T reduce(T value, List<T> childValues) {
+        return value;
+    }
+
+    /**
+     * @return the reduced value, completed when the subtree of the task is finished.
+     */
+    public CompletableFuture<T> result() {
+        return result;
+    }
+
+    @Override
+    protected final void doRun() {
+        try {
+            value = compute();
+        } catch (RuntimeException | Error e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a next task whose final value is passed to {@link #reduce(Object, List)} of this task.
+     */
+    protected void addNextValueTask(ValueTask<T> t) {
+        // the next task starts after this one returned, so it's set in time, but only if it's accepted
+        if (pool().addTask(t, this))
+            t.valueParent = this;
+    }
+
+    @Override
+    void finished() {
+        Throwable error = failure.get();
+        if (error == null && isCancelled())
+            error = new CancellationException();
+        T reduced = null;
+        if (error == null) {
+            try {
+                reduced = reduce(value, drainChildValues());
+            } catch (RuntimeException | Error e) {
+                error = e;
+            }
+        }
+
+        if (valueParent != null) {
+            if (error == null)
+                valueParent.childValues.add(reduced == null ? NULL : reduced);
+            else
+                valueParent.failure.compareAndSet(null, error);
+            valueParent = null;
+        }
+        value = null;
+        if (error == null)
+            result.complete(reduced);
+        else
+            result.completeExceptionally(error);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> drainChildValues() {
+        List<T> result = new ArrayList<>();
+        for (Object childValue; (childValue = childValues.poll()) != null; )
+            result.add(childValue == NULL ? null : (T) childValue);
+        return result;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CancellationTokenTest {
+    @Test
+    void testQueuedTasksOfACancelledTokenAreSkipped() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pool.add(() -> awaitQuietly(release));
+        CancellationToken token = new CancellationToken();
+        AtomicInteger count = new AtomicInteger();
+        TaskGroup group = pool.createGroup();
+        for (int i = 0; i != 10; ++i) {
+            Task task = new CountingTree(pool, 2, count);
+            task.setCancellationToken(token);
+            group.addTask(task);
+        }
+
+        token.cancel();
+        release.countDown();
+        assertTrue(group.await(5, TimeUnit.SECONDS));
+        pool.waitAllTask();
+        assertEquals(0, count.get());
+    }
+
+    @Test
+    void testCancellationInterruptsTheRunningSubtreeAndSkipsThePostProcessors() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(4);
+        CancellationToken token = new CancellationToken();
+        CountDownLatch started = new CountDownLatch(3);
+        AtomicInteger interrupted = new AtomicInteger();
+        AtomicBoolean postProcessorRun = new AtomicBoolean();
+        Task root = new Task(pool) {
+            @Override
+            protected void doRun() {
+                for (int i = 0; i != 3; ++i) {
+                    addNextRunnable(() -> {
+                        started.countDown();
+                        try {
+                            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                        } catch (InterruptedException e) {
+                            interrupted.incrementAndGet();
+                        }
+                    });
+                }
+                addPostProcessorRunnable(() -> postProcessorRun.set(true));
+            }
+        };
+        root.setCancellationToken(token);
+        pool.addTask(root);
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        token.cancel();
+        pool.waitAllTask();
+        assertEquals(3, interrupted.get());
+        assertFalse(postProcessorRun.get());
+        assertTrue(root.isCancelled());
+    }
+
+    @Test
+    void testChildTokenDeadlineCancelsOnlyItsSubtree() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(2);
+        CancellationToken token = new CancellationToken();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicInteger count = new AtomicInteger();
+        Task slow = new RunnableTask(() -> {
+            try {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        }, pool);
+        slow.setCancellationToken(token.child(Duration.ofMillis(20)));
+        Task quick = new CountingTree(pool, 2, count);
+        quick.setCancellationToken(token);
+        pool.addTask(slow);
+        pool.addTask(quick);
+        pool.waitAllTask();
+
+        assertTrue(interrupted.get());
+        assertTrue(slow.isCancelled());
+        assertFalse(token.isCancelled());
+        assertEquals(7, count.get());
+    }
+
+    @Test
+    void testCancelledParentCancelsTheChildTokens() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.child(Duration.ofHours(1));
+        parent.cancel();
+        assertTrue(child.isCancelled());
+        assertThrows(CancellationException.class, child::throwIfCancelled);
+    }
+
+    @Test
+    void testCancellationIsPropagatedDownOnly() {
+        CancellationToken root = new CancellationToken();
+        CancellationToken child = root.child();
+        CancellationToken sibling = root.child();
+        CancellationToken grandchild = child.child();
+        child.cancel();
+        assertTrue(grandchild.isCancelled());
+        assertFalse(root.isCancelled());
+        assertFalse(sibling.isCancelled());
+
+        root.cancel();
+        assertTrue(sibling.isCancelled());
+        assertTrue(root.child().isCancelled());
+    }
+
+    @Test
+    void testThePoolThreadIsNotLeftInterrupted() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(1);
+        CancellationToken token = new CancellationToken();
+        CountDownLatch started = new CountDownLatch(1);
+        Task busy = new RunnableTask(() -> {
+            started.countDown();
+            // ignores the interrupt, so it's still pending when the task returns
+            while (!Thread.currentThread().isInterrupted())
+                Thread.onSpinWait();
+        }, pool);
+        busy.setCancellationToken(token);
+        pool.addTask(busy);
+        AtomicBoolean nextInterrupted = new AtomicBoolean(true);
+        pool.add(() -> nextInterrupted.set(Thread.currentThread().isInterrupted()));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        token.cancel();
+        pool.waitAllTask();
+        assertFalse(nextInterrupted.get());
+    }
+
+    @Test
+    void testCancelledValueTaskCompletesExceptionally() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(1);
+        CancellationToken token = new CancellationToken();
+        ValueTask<Integer> task = new ValueTask<>(pool) {
+            @Override
+            protected Integer compute() {
+                token.cancel();
+                token.throwIfCancelled();
+                return 1;
+            }
+        };
+        task.setCancellationToken(token);
+        pool.addTask(task);
+        pool.waitAllTask();
+
+        assertTrue(task.result().isCompletedExceptionally());
+        assertThrows(CancellationException.class, () -> task.result().get());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            // nothing to do here
+        }
+    }
+
+    /**
+     * A binary tree of the given depth, counting its nodes.
+     */
+    private static class CountingTree extends Task {
+        private final int depth;
+        private final AtomicInteger count;
+
+        CountingTree(ThreadPool pool, int depth, AtomicInteger count) {
+            super(pool);
+            this.depth = depth;
+            this.count = count;
+        }
+
+        @Override
+        protected void doRun() {
+            count.incrementAndGet();
+            if (depth == 0)
+                return;
+            addNextTask(new CountingTree(pool(), depth - 1, count));
+            addNextTask(new CountingTree(pool(), depth - 1, count));
+        }
+    }
+}
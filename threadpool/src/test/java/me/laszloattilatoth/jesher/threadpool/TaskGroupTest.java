@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskGroupTest {
+    @Test
+    void testGroupsAreAwaitedIndependently() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(4);
+        CountDownLatch release = new CountDownLatch(1);
+        TaskGroup blocked = pool.createGroup();
+        TaskGroup quick = pool.createGroup();
+        AtomicInteger quickCount = new AtomicInteger();
+
+        blocked.add(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // nothing to do here
+            }
+        });
+        for (int i = 0; i != 10; ++i)
+            quick.addTask(new CountingTree(pool, 3, quickCount));
+
+        quick.await();
+        assertEquals(10 * 7, quickCount.get());
+        assertFalse(blocked.await(50, TimeUnit.MILLISECONDS));
+        assertEquals(1, blocked.remainingTaskCount());
+
+        release.countDown();
+        blocked.await();
+        assertTrue(blocked.isDone());
+        pool.shutdown();
+    }
+
+    @Test
+    void testPoolIsReusedForManyBatches() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(2);
+        TaskGroup group = pool.createGroup();
+        AtomicInteger count = new AtomicInteger();
+        for (int batch = 1; batch <= 3; ++batch) {
+            group.addTask(new CountingTree(pool, 4, count));
+            group.await();
+            assertEquals(batch * 15, count.get());
+        }
+        pool.awaitIdle();
+        pool.shutdown();
+    }
+
+    /**
+     * A binary tree of the given depth, whose nodes are counted by post-processors.
+     */
+    private static class CountingTree extends Task {
+        private final int depth;
+        private final AtomicInteger count;
+
+        CountingTree(ThreadPool pool, int depth, AtomicInteger count) {
+            super(pool);
+            this.depth = depth;
+            this.count = count;
+        }
+
+        @Override
+        protected void doRun() {
+            if (depth > 1) {
+                addNextTask(new CountingTree(pool(), depth - 1, count));
+                addNextTask(new CountingTree(pool(), depth - 1, count));
+            }
+            addPostProcessorRunnable(count::incrementAndGet);
+        }
+    }
+}
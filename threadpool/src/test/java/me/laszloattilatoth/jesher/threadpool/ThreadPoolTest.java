@@ -19,9 +19,16 @@ package me.laszloattilatoth.jesher.threadpool;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -29,6 +36,7 @@ import static org.hamcrest.Matchers.anyOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ThreadPoolTest implements ValueStore {
@@ -198,6 +206,262 @@ public class ThreadPoolTest implements ValueStore {
         assertEquals(new HashSet<>(expected), new HashSet<>(values));
     }
 
+    @Test
+    void testPostProcessorsRunAfterTheWholeSubtreeOfManyShortTasks() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(8);
+        AtomicInteger finishedTrees = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        int count = 500;
+        for (int i = 0; i != count; ++i)
+            pool.addTask(new TreeTask(pool, 3, finishedTrees, violations));
+        pool.waitAllTask();
+
+        assertEquals(count, finishedTrees.get());
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    void testVirtualPoolLimitsTheConcurrency() throws InterruptedException {
+        ThreadPool pool = ThreadPool.ofVirtual(4);
+        assertEquals(4, pool.threadCount());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        int count = 200;
+        for (int i = 0; i != count; ++i) {
+            pool.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    // nothing to do here
+                }
+                running.decrementAndGet();
+                CountingRunnable.count.incrementAndGet();
+            });
+        }
+        pool.waitAllTask();
+
+        assertEquals(count, CountingRunnable.count.get());
+        assertThat(maxRunning.get() <= 4, is(true));
+    }
+
+    @Test
+    void testVirtualPoolKeepsTheOrderOfTaskTrees() throws InterruptedException {
+        ThreadPool pool = ThreadPool.ofVirtual(1);
+        AtomicInteger finishedTrees = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        int count = 50;
+        for (int i = 0; i != count; ++i)
+            pool.addTask(new TreeTask(pool, 2, finishedTrees, violations));
+        pool.waitAllTask();
+
+        assertEquals(count, finishedTrees.get());
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    void testWorkStealingPoolKeepsTheOrderOfTaskTrees() throws InterruptedException {
+        ThreadPool pool = ThreadPool.ofWorkStealing(4);
+        assertEquals(4, pool.threadCount());
+        AtomicInteger finishedTrees = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        int count = 200;
+        for (int i = 0; i != count; ++i)
+            pool.addTask(new TreeTask(pool, 3, finishedTrees, violations));
+        pool.waitAllTask();
+
+        assertEquals(count, finishedTrees.get());
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    void testPriorityPoolRunsByPriorityAndCost() throws InterruptedException {
+        ThreadPool pool = ThreadPool.ofPriority(1, Duration.ofHours(1), true);
+        List<Integer> order = runBlockedThenReleased(pool, new int[]{0, 5, 0, 1}, new long[]{0, 0, TimeUnit.SECONDS.toNanos(1), 0});
+        assertEquals(List.of(1, 3, 2, 0), order);
+    }
+
+    @Test
+    void testPriorityPoolAgesTheWaitingTasks() throws InterruptedException {
+        ThreadPool pool = ThreadPool.ofPriority(1, Duration.ofNanos(1), false);
+        List<Integer> order = runBlockedThenReleased(pool, new int[]{0, 5, 10}, new long[]{0, 0, 0});
+        assertEquals(List.of(0, 1, 2), order);
+    }
+
+    @Test
+    void testPriorityPoolWithManyThreadsRunsTheQueuedTasksByPriority() throws InterruptedException {
+        long waitingBefore = threadsTakingFromPriorityQueue();
+        ThreadPool pool = ThreadPool.ofPriority(2, Duration.ofHours(1), false);
+        // the threads are started in advance, so not even the first tasks bypass the queue
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (threadsTakingFromPriorityQueue() - waitingBefore < 2 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertEquals(2, threadsTakingFromPriorityQueue() - waitingBefore);
+
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch releaseSecond = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(2);
+        pool.add(() -> {
+            blocked.countDown();
+            awaitQuietly(releaseFirst);
+        });
+        pool.add(() -> {
+            blocked.countDown();
+            awaitQuietly(releaseSecond);
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        int[] priorities = {1, 4, 0, 3, 2};
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(priorities.length);
+        for (int priority : priorities) {
+            Task task = new RunnableTask(() -> {
+                order.add(priority);
+                done.countDown();
+            }, pool);
+            task.setPriority(priority);
+            pool.addTask(task);
+        }
+        // only one thread is released, so the order is not affected by the scheduling of the threads
+        releaseFirst.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        releaseSecond.countDown();
+        pool.waitAllTask();
+        assertEquals(List.of(4, 3, 2, 1, 0), order);
+    }
+
+    @Test
+    void testBoundedPoolFailsFastWhenFull() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(2).limitPendingTasks(1, ThreadPool.AdmissionPolicy.FAIL_FAST, Duration.ZERO);
+        CountDownLatch release = new CountDownLatch(1);
+        pool.add(() -> awaitQuietly(release));
+        assertThrows(RejectedExecutionException.class, () -> pool.add(CountingRunnable.count::incrementAndGet));
+        release.countDown();
+        pool.awaitIdle();
+
+        pool.add(CountingRunnable.count::incrementAndGet);
+        pool.waitAllTask();
+        assertEquals(1, CountingRunnable.count.get());
+    }
+
+    @Test
+    void testBoundedPoolRejectsAfterTheTimeout() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(2).limitPendingTasks(1, ThreadPool.AdmissionPolicy.TIMED, Duration.ofMillis(20));
+        CountDownLatch release = new CountDownLatch(1);
+        pool.add(() -> awaitQuietly(release));
+        long start = System.nanoTime();
+        assertThrows(RejectedExecutionException.class, () -> pool.add(CountingRunnable.count::incrementAndGet));
+        assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20), is(true));
+        release.countDown();
+        pool.waitAllTask();
+        assertEquals(0, CountingRunnable.count.get());
+    }
+
+    @Test
+    void testBoundedPoolBlocksTheProducer() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(4).limitPendingTasks(2);
+        AtomicInteger done = new AtomicInteger();
+        int maxPending = 0;
+        int count = 100;
+        for (int i = 0; i != count; ++i) {
+            pool.add(() -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    // nothing to do here
+                }
+                done.incrementAndGet();
+            });
+            maxPending = Math.max(maxPending, i + 1 - done.get());
+        }
+        pool.waitAllTask();
+
+        assertEquals(count, done.get());
+        assertThat(maxPending <= 2, is(true));
+    }
+
+    @Test
+    void testBoundedPoolDoesNotLimitTheTasksAddedByItsTasks() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(4).limitPendingTasks(1, ThreadPool.AdmissionPolicy.FAIL_FAST, Duration.ZERO);
+        AtomicInteger finishedTrees = new AtomicInteger();
+        AtomicInteger violations = new AtomicInteger();
+        int count = 20;
+        pool.add(() -> {
+            for (int i = 0; i != count; ++i)
+                pool.addTask(new TreeTask(pool, 3, finishedTrees, violations));
+        });
+        pool.waitAllTask();
+
+        assertEquals(count, finishedTrees.get());
+        assertEquals(0, violations.get());
+    }
+
+    @Test
+    void testRejectedSubmissionReleasesTheAdmission() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(1).limitPendingTasks(1, ThreadPool.AdmissionPolicy.FAIL_FAST, Duration.ZERO);
+        TaskGroup group = pool.createGroup();
+        pool.shutdown();
+        for (int i = 0; i != 2; ++i) {
+            RejectedExecutionException e = assertThrows(RejectedExecutionException.class, () -> group.add(CountingRunnable.count::incrementAndGet));
+            assertNotEquals("Too many pending tasks", e.getMessage());
+        }
+
+        assertTrue(group.isDone());
+        pool.awaitIdle();
+        assertEquals(0, CountingRunnable.count.get());
+    }
+
+    private static long threadsTakingFromPriorityQueue() {
+        return Thread.getAllStackTraces().values().stream()
+                .filter(stack -> Arrays.stream(stack).anyMatch(frame -> frame.getClassName().equals(PriorityBlockingQueue.class.getName())))
+                .count();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            // nothing to do here
+        }
+    }
+
+    /**
+     * Queues tasks with the given priorities and costs while the only thread of the pool is blocked,
+     * 1 ms apart, and returns the indexes of the tasks in the order of their runs.
+     */
+    private static List<Integer> runBlockedThenReleased(ThreadPool pool, int[] priorities, long[] costs) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        pool.add(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // nothing to do here
+            }
+        });
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i != priorities.length; ++i) {
+            int index = i;
+            long cost = costs[i];
+            Task task = new Task(pool) {
+                @Override
+                protected void doRun() {
+                    order.add(index);
+                }
+
+                @Override
+                protected long estimatedCostNanos() {
+                    return cost;
+                }
+            };
+            task.setPriority(priorities[i]);
+            pool.addTask(task);
+            Thread.sleep(1);
+        }
+        release.countDown();
+        pool.waitAllTask();
+        return order;
+    }
+
     TestTaskConfig create1() {
         final int count = 5;
         List<TestTaskConfig> nList = new ArrayList<>();
@@ -288,6 +552,39 @@ public class ThreadPoolTest implements ValueStore {
         }
     }
 
+    /**
+     * Starts 3 next tasks of one less depth, and a post-processor checking that all of them are finished
+     * with their own post-processors.
+     */
+    private static class TreeTask extends Task {
+        private final int depth;
+        private final AtomicInteger parentFinishedChildren;
+        private final AtomicInteger violations;
+        private final AtomicInteger finishedChildren = new AtomicInteger();
+
+        TreeTask(ThreadPool pool, int depth, AtomicInteger parentFinishedChildren, AtomicInteger violations) {
+            super(pool);
+            this.depth = depth;
+            this.parentFinishedChildren = parentFinishedChildren;
+            this.violations = violations;
+        }
+
+        @Override
+        protected void doRun() {
+            if (depth == 0) {
+                parentFinishedChildren.incrementAndGet();
+                return;
+            }
+            for (int i = 0; i != 3; ++i)
+                addNextTask(new TreeTask(pool(), depth - 1, finishedChildren, violations));
+            addPostProcessorRunnable(() -> {
+                if (finishedChildren.get() != 3)
+                    violations.incrementAndGet();
+                parentFinishedChildren.incrementAndGet();
+            });
+        }
+    }
+
     private static class TestTask extends Task {
         private final ValueStore store;
         private final TestTaskConfig config;
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Laszlo Attila Toth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package me.laszloattilatoth.jesher.threadpool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ValueTaskTest {
+    @Test
+    void testSumOfATree() throws Exception {
+        ThreadPool pool = new ThreadPool(4);
+        SumTask root = new SumTask(pool, 1, 4, -1);
+        pool.addTask(root);
+        pool.waitAllTask();
+
+        // a complete ternary tree of depth 4 with the values 1..40 in breadth-first order
+        assertTrue(root.result().isDone());
+        assertEquals(40 * 41 / 2, root.result().get());
+    }
+
+    @Test
+    void testNullValues() throws Exception {
+        ThreadPool pool = new ThreadPool(2);
+        ValueTask<List<Integer>> root = new ValueTask<>(pool) {
+            @Override
+            protected List<Integer> compute() {
+                for (int i = 0; i != 3; ++i) {
+                    addNextValueTask(new ValueTask<>(pool()) {
+                        @Override
+                        protected List<Integer> compute() {
+                            return null;
+                        }
+                    });
+                }
+                return List.of();
+            }
+
+            @Override
+            protected List<Integer> reduce(List<Integer> value, List<List<Integer>> childValues) {
+                return List.of(childValues.size());
+            }
+        };
+        pool.addTask(root);
+        pool.waitAllTask();
+
+        assertEquals(List.of(3), root.result().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testRejectedChildKeepsReportingToItsParent() throws Exception {
+        ThreadPool pool = new ThreadPool(2);
+        ValueTask<Integer> other = new ConstantTask(pool, 0);
+        ValueTask<Integer> root = new ConstantTask(pool, 1) {
+            @Override
+            protected Integer compute() {
+                ValueTask<Integer> child = new ConstantTask(pool(), 2);
+                addNextValueTask(child);
+                // already registered, so it's rejected
+                other.addNextValueTask(child);
+                return super.compute();
+            }
+        };
+        pool.addTask(root);
+        pool.waitAllTask();
+
+        assertEquals(3, root.result().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testFailureOfAChildFailsTheAncestors() throws InterruptedException {
+        ThreadPool pool = new ThreadPool(4);
+        SumTask root = new SumTask(pool, 1, 3, 7);
+        pool.addTask(root);
+        pool.waitAllTask();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> root.result().get());
+        assertEquals("failure of 7", e.getCause().getMessage());
+    }
+
+    /**
+     * The node `index` of a complete ternary tree, whose children are 3 * index - 1 .. 3 * index + 1.
+     */
+    private static class SumTask extends ValueTask<Integer> {
+        private final int index;
+        private final int depth;
+        private final int failingIndex;
+
+        SumTask(ThreadPool pool, int index, int depth, int failingIndex) {
+            super(pool);
+            this.index = index;
+            this.depth = depth;
+            this.failingIndex = failingIndex;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (index == failingIndex)
+                throw new IllegalStateException("failure of " + index);
+            if (depth > 1) {
+                for (int i = -1; i <= 1; ++i)
+                    addNextValueTask(new SumTask(pool(), 3 * index + i, depth - 1, failingIndex));
+            }
+            return index;
+        }
+
+        @Override
+        protected Integer reduce(Integer value, List<Integer> childValues) {
+            return value + childValues.stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    private static class ConstantTask extends ValueTask<Integer> {
+        private final int value;
+
+        ConstantTask(ThreadPool pool, int value) {
+            super(pool);
+            this.value = value;
+        }
+
+        @Override
+        protected Integer compute() {
+            return value;
+        }
+
+        @Override
+        protected Integer reduce(Integer value, List<Integer> childValues) {
+            return value + childValues.stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+}